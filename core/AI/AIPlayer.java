@@ -5,13 +5,15 @@ import core.*;
 public class AIPlayer extends Player {
 
     Search search;
+    AISettings settings;
     boolean moveFound;
     Move move;
     Board board;
 
     public AIPlayer(GameManager gm, Board board, boolean isWhite) {
         super(gm, board, isWhite);
-        search = new Search(board, this);
+        settings = new AISettings();
+        search = new Search(board, this, settings);
     }
 
     @Override
@@ -10,10 +10,39 @@ public class AISettings {
     public boolean useTranspositionTable;
 
     public boolean useThreading;
+    public int numThreads = Runtime.getRuntime().availableProcessors(); // only used if useThreading is set
     public boolean useFixedDepthSearch;
-    public int searchTimeMillis = 1000;
+    public int searchTimeMillis = 1000; // time per move, unless the clock below is set
+    // Clock of the side to move. If set, the time for each move is taken from the remaining time.
+    public long clockRemainingMillis;
+    public long clockIncrementMillis;
+    public int movesToGo; // moves until the next time control (0 if the remaining time is for the rest of the game)
     public boolean endlessSearchMode;
-    public boolean clearTTEachMove;
+    public boolean clearTTEachMove; // otherwise the transposition table is kept between moves and games
+    public int transpositionTableSizeMB = 64;
+    public boolean useEvaluationCache = true;
+    public int evaluationCacheSizeMB = 4;
+
+    // Forward pruning and reductions. Each technique can be switched off on its own
+    // to measure its effect on the search.
+    public boolean useNullMovePruning = true;
+    public int nullMoveReduction = 2; // the null move is searched this many plies shallower than the other moves
+    public boolean useLateMoveReductions = true;
+    // Aspiration windows: from aspirationMinDepth on, each iteration first searches a window
+    // of aspirationWindow centipawns on either side of the previous iteration's score
+    public boolean useAspirationWindows = true;
+    public int aspirationWindow = 50;
+    public int aspirationMinDepth = 4;
+    // Quiet moves late in the move ordering are searched with a reduction of
+    // lmrBase + ln(depth) * ln(moveIndex) / lmrDivisor plies (rounded down)
+    public double lmrBase = 0.75;
+    public double lmrDivisor = 2.25;
+    public int lmrMinDepth = 3;
+    public int lmrMinMoveIndex = 3; // number of moves that are always searched to the full depth
+    // Quiescence search: skip captures that lose material according to the static exchange
+    // evaluation, and captures that can't bring the score anywhere near alpha
+    public boolean useQuiescenceSeePruning = true;
+    public boolean useDeltaPruning = true;
 
     public boolean useBook;
     // public TextAsset book;
@@ -10,9 +10,28 @@ public class Evaluation {
     public static final int BISHOP_VAL = 320;
     public static final int ROOK_VAL = 500;
     public static final int QUEEN_VAL = 900;
+    // Value of each piece type (the king doesn't count as material)
+    public static final int[] pieceValues = { 0, 0, PAWN_VAL, KNIGHT_VAL, 0, BISHOP_VAL, ROOK_VAL, QUEEN_VAL };
 
     static final float ENDGAME_MATERIAL_START = ROOK_VAL * 2 + BISHOP_VAL + KNIGHT_VAL;
+
+    // Pawn structure
+    static final int DOUBLED_PAWN_PENALTY = 10; // per pawn in front of another pawn of the same colour
+    static final int ISOLATED_PAWN_PENALTY = 15;
+    static final int BACKWARD_PAWN_PENALTY = 8;
+    static final int[] passedPawnBonus = { 0, 10, 15, 25, 40, 60, 90, 0 }; // by rank, seen from the pawn's side
+    static final int PAWN_TABLE_SIZE = 1 << 14;
+
+    static final long[] fileMasks = new long[8];
+    static final long[] adjacentFileMasks = new long[8];
+    // Per colour index and square: squares in front of a pawn on its own and the adjacent
+    // files (a pawn is passed if there are no opponent pawns there), and squares on the
+    // adjacent files level with or behind it (where pawns that could support it would be)
+    static final long[][] passedPawnMasks = new long[2][64];
+    static final long[][] supportMasks = new long[2][64];
+
     Board board;
+    PawnHashTable pawnTable = new PawnHashTable(PAWN_TABLE_SIZE);
 
     // Performs static evaluation of the current position.
     // The position is assumed to be 'quiet', i.e no captures are available that could drastically affect the evaluation.
@@ -23,13 +42,12 @@ public class Evaluation {
         int whiteEval = 0;
         int blackEval = 0;
 
-        int whiteMaterial = CountMaterial (Board.WHITE_INDEX);
-        int blackMaterial = CountMaterial (Board.BLACK_INDEX);
+        // Material and piece-square table sums are kept up to date by the board
+        int whiteMaterial = board.material[Board.WHITE_INDEX];
+        int blackMaterial = board.material[Board.BLACK_INDEX];
 
-        int whiteMaterialWithoutPawns = whiteMaterial - board.pawns[Board.WHITE_INDEX].size() * PAWN_VAL;
-        int blackMaterialWithoutPawns = blackMaterial - board.pawns[Board.BLACK_INDEX].size() * PAWN_VAL;
-        float whiteEndgamePhaseWeight = EndgamePhaseWeight (whiteMaterialWithoutPawns);
-        float blackEndgamePhaseWeight = EndgamePhaseWeight (blackMaterialWithoutPawns);
+        float whiteEndgamePhaseWeight = EndgamePhaseWeight (board.nonPawnMaterial[Board.WHITE_INDEX]);
+        float blackEndgamePhaseWeight = EndgamePhaseWeight (board.nonPawnMaterial[Board.BLACK_INDEX]);
 
         whiteEval += whiteMaterial;
         blackEval += blackMaterial;
@@ -39,6 +57,19 @@ public class Evaluation {
         whiteEval += EvaluatePieceSquareTables (Board.WHITE_INDEX, blackEndgamePhaseWeight);
         blackEval += EvaluatePieceSquareTables (Board.BLACK_INDEX, whiteEndgamePhaseWeight);
 
+        // The pawn structure score only depends on the pawns, so it's usually found in the pawn table
+        int pawnTableIndex = pawnTable.Index (board.PawnKey);
+        if (!pawnTable.Contains (pawnTableIndex, board.PawnKey)) {
+            long passedPawns = GetPassedPawns (Board.WHITE_INDEX) | GetPassedPawns (Board.BLACK_INDEX);
+            int pawnScore = EvaluatePawnStructure (Board.WHITE_INDEX, passedPawns) - EvaluatePawnStructure (Board.BLACK_INDEX, passedPawns);
+            pawnTable.Store (pawnTableIndex, board.PawnKey, pawnScore, passedPawns);
+        }
+        whiteEval += pawnTable.GetScore (pawnTableIndex);
+        // Passed pawns are harder to stop with fewer opponent pieces left on the board
+        long passedPawns = pawnTable.GetPassedPawns (pawnTableIndex);
+        whiteEval += (int) (EvaluatePassedPawns (Board.WHITE_INDEX, passedPawns) * blackEndgamePhaseWeight);
+        blackEval += (int) (EvaluatePassedPawns (Board.BLACK_INDEX, passedPawns) * whiteEndgamePhaseWeight);
+
         int eval = whiteEval - blackEval;
 
         int perspective = (board.whiteToMove) ? 1 : -1;
@@ -65,35 +96,94 @@ public class Evaluation {
         return 0;
     }
 
-    int CountMaterial (int colourIndex) {
-        int material = 0;
-        material += board.pawns[colourIndex].size() * PAWN_VAL;
-        material += board.knights[colourIndex].size() * KNIGHT_VAL;
-        material += board.bishops[colourIndex].size() * BISHOP_VAL;
-        material += board.rooks[colourIndex].size() * ROOK_VAL;
-        material += board.queens[colourIndex].size() * QUEEN_VAL;
+    // Tapered between the middlegame and endgame piece-square tables, by the opponent's endgame phase weight
+    int EvaluatePieceSquareTables (int colourIndex, float endgamePhaseWeight) {
+        return (int) (board.pstMiddlegame[colourIndex] * (1 - endgamePhaseWeight) + board.pstEndgame[colourIndex] * endgamePhaseWeight);
+    }
 
-        return material;
+    // Pawns of the given colour without opponent pawns in front of them on their own or the adjacent files
+    long GetPassedPawns (int colourIndex) {
+        long pawns = board.GetPieceBitboard (Piece.Pawn, colourIndex);
+        long opponentPawns = board.GetPieceBitboard (Piece.Pawn, 1 - colourIndex);
+        long passedPawns = 0;
+        for (long remaining = pawns; remaining != 0; remaining &= remaining - 1) {
+            int square = Long.numberOfTrailingZeros (remaining);
+            if ((passedPawnMasks[colourIndex][square] & opponentPawns) == 0) {
+                passedPawns |= 1l << square;
+            }
+        }
+        return passedPawns;
     }
 
-    int EvaluatePieceSquareTables (int colourIndex, float endgamePhaseWeight) {
-        int value = 0;
-        boolean isWhite = colourIndex == Board.WHITE_INDEX;
-        value += EvaluatePieceSquareTable (PieceSquareTable.pawns, board.pawns[colourIndex], isWhite);
-        value += EvaluatePieceSquareTable (PieceSquareTable.rooks, board.rooks[colourIndex], isWhite);
-        value += EvaluatePieceSquareTable (PieceSquareTable.knights, board.knights[colourIndex], isWhite);
-        value += EvaluatePieceSquareTable (PieceSquareTable.bishops, board.bishops[colourIndex], isWhite);
-        value += EvaluatePieceSquareTable (PieceSquareTable.queens, board.queens[colourIndex], isWhite);
-        int kingEarlyPhase = PieceSquareTable.Read (PieceSquareTable.kingMiddle, board.KingSquare[colourIndex], isWhite);
-        value += (int) (kingEarlyPhase * (1 - endgamePhaseWeight));
-        return value;
+    // Doubled, isolated, backward and passed pawns of the given colour
+    int EvaluatePawnStructure (int colourIndex, long passedPawns) {
+        long pawns = board.GetPieceBitboard (Piece.Pawn, colourIndex);
+        long opponentPawns = board.GetPieceBitboard (Piece.Pawn, 1 - colourIndex);
+        int score = 0;
+
+        for (int file = 0; file < 8; file++) {
+            int numPawnsOnFile = Long.bitCount (pawns & fileMasks[file]);
+            if (numPawnsOnFile > 1) {
+                score -= DOUBLED_PAWN_PENALTY * (numPawnsOnFile - 1);
+            }
+        }
+
+        for (long remaining = pawns; remaining != 0; remaining &= remaining - 1) {
+            int square = Long.numberOfTrailingZeros (remaining);
+            int file = BoardUtility.FileIndex (square);
+            int rank = BoardUtility.RankIndex (square);
+
+            if ((passedPawns & (1l << square)) != 0) {
+                score += passedPawnBonus[(colourIndex == Board.WHITE_INDEX) ? rank : 7 - rank];
+            }
+            if ((pawns & adjacentFileMasks[file]) == 0) {
+                score -= ISOLATED_PAWN_PENALTY;
+            } else if ((pawns & supportMasks[colourIndex][square]) == 0) {
+                // No pawn can come to its support, and it can't advance safely either
+                int stopSquare = square + ((colourIndex == Board.WHITE_INDEX) ? 8 : -8);
+                if ((PrecomputedMoveData.pawnAttackBitboards[stopSquare][colourIndex] & opponentPawns) != 0) {
+                    score -= BACKWARD_PAWN_PENALTY;
+                }
+            }
+        }
+        return score;
+    }
+
+    // Additional passed pawn bonus for the endgame. The mask holds the passed pawns of both colours.
+    int EvaluatePassedPawns (int colourIndex, long passedPawns) {
+        int score = 0;
+        long colourPassedPawns = passedPawns & board.GetPieceBitboard (Piece.Pawn, colourIndex);
+        for (long remaining = colourPassedPawns; remaining != 0; remaining &= remaining - 1) {
+            int rank = BoardUtility.RankIndex (Long.numberOfTrailingZeros (remaining));
+            score += passedPawnBonus[(colourIndex == Board.WHITE_INDEX) ? rank : 7 - rank];
+        }
+        return score;
     }
 
-    static int EvaluatePieceSquareTable (int[] table, PieceList pieceList, boolean isWhite) {
-        int value = 0;
-        for (int i = 0; i < pieceList.size(); i++) {
-            value += PieceSquareTable.Read (table, pieceList.get(i), isWhite);
+    static {
+        for (int file = 0; file < 8; file++) {
+            fileMasks[file] = 0x0101010101010101l << file;
+        }
+        for (int file = 0; file < 8; file++) {
+            adjacentFileMasks[file] = ((file > 0) ? fileMasks[file - 1] : 0) | ((file < 7) ? fileMasks[file + 1] : 0);
+        }
+        for (int square = 0; square < 64; square++) {
+            int file = BoardUtility.FileIndex (square);
+            int rank = BoardUtility.RankIndex (square);
+            long ownAndAdjacentFiles = fileMasks[file] | adjacentFileMasks[file];
+            for (int otherRank = 0; otherRank < 8; otherRank++) {
+                long rankMask = 0xFFl << (otherRank * 8);
+                if (otherRank > rank) {
+                    passedPawnMasks[Board.WHITE_INDEX][square] |= ownAndAdjacentFiles & rankMask;
+                    supportMasks[Board.BLACK_INDEX][square] |= adjacentFileMasks[file] & rankMask;
+                } else if (otherRank < rank) {
+                    passedPawnMasks[Board.BLACK_INDEX][square] |= ownAndAdjacentFiles & rankMask;
+                    supportMasks[Board.WHITE_INDEX][square] |= adjacentFileMasks[file] & rankMask;
+                } else {
+                    supportMasks[Board.WHITE_INDEX][square] |= adjacentFileMasks[file] & rankMask;
+                    supportMasks[Board.BLACK_INDEX][square] |= adjacentFileMasks[file] & rankMask;
+                }
+            }
         }
-        return value;
     }
 }
@@ -0,0 +1,55 @@
+package core.ai;
+
+import java.util.Arrays;
+
+/**
+ * Direct-mapped cache of static evaluations by Zobrist key, so that positions
+ * reached again (through transpositions, or in a later iteration) aren't
+ * evaluated again. Like the transposition table, it's shared between search
+ * threads without locking.
+ */
+public class EvaluationCache {
+
+    public static final int lookupFailed = Integer.MIN_VALUE;
+
+    // Each entry takes two longs: the key xor-ed with the data, followed by the data, so
+    // that half written entries and empty slots are rejected (see TranspositionTable).
+    // Data layout:
+    // Bits 0-31 store the evaluation
+    // Bit 32 is set for every stored entry, so that the data of an entry is never 0
+    static final int ENTRY_LONGS = 2;
+    static final long STORED_FLAG = 1l << 32;
+
+    final long[] table;
+    final int indexMask;
+    public final int numEntries;
+
+    public EvaluationCache(int sizeInMB) {
+        long size = Long.highestOneBit(Math.max(1, ((long) sizeInMB << 20) / (ENTRY_LONGS * 8)));
+        numEntries = (int) Math.min(size, 1 << 26);
+        table = new long[numEntries * ENTRY_LONGS];
+        indexMask = numEntries - 1;
+    }
+
+    public void Clear() {
+        Arrays.fill(table, 0);
+    }
+
+    // Returns the evaluation stored for the given position, or lookupFailed if there is none
+    public int Lookup(long key) {
+        int index = ((int) key & indexMask) * ENTRY_LONGS;
+        long data = table[index + 1];
+        if ((table[index] ^ data) == key && data != 0) {
+            return (int) data;
+        }
+        return lookupFailed;
+    }
+
+    // Stores the evaluation, replacing whatever was stored in its slot before
+    public void Store(long key, int eval) {
+        int index = ((int) key & indexMask) * ENTRY_LONGS;
+        long data = (eval & 0xFFFFFFFFl) | STORED_FLAG;
+        table[index] = key ^ data;
+        table[index + 1] = data;
+    }
+}
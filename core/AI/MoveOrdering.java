@@ -1,45 +1,116 @@
 package core.ai;
 
+import java.util.Arrays;
+
 import core.*;
 import core.util.*;
 
-import java.util.List;
-
 public class MoveOrdering {
     
 		public int[] moveScores;
-		static final int MAX_MOVE_COUNT = 218;
+		static final int MAX_MOVE_COUNT = MoveGenerator.MAX_MOVE_COUNT;
 
 		static final int SQUARE_CONTROLLED_BY_OPP_PAWN_PENALTY = 350;
 		static final int CAPTURED_PIECE_VAL_MULTIPLIER = 10;
 
+		// Score bands: hash move, then captures that don't lose material and queen promotions,
+		// then killers and the countermove, then the remaining quiet moves ordered by their
+		// history score, then captures that lose material
+		static final int HASH_MOVE_BONUS = 1000000;
+		static final int CAPTURE_BONUS = 100000;
+		static final int FIRST_KILLER_BONUS = 50000;
+		static final int SECOND_KILLER_BONUS = 49000;
+		static final int COUNTER_MOVE_BONUS = 48000;
+		static final int BAD_CAPTURE_SCORE = -100000; // captures that lose material come after all quiet moves
+		static final int MAX_HISTORY = 16384; // history scores stay within +-MAX_HISTORY
+		static final int NUM_KILLERS = 2;
+		static final int NO_PLY = -1; // for ordering moves outside of the main search (no killers)
+
 		MoveGenerator moveGenerator;
 		TranspositionTable transpositionTable;
 		Move invalidMove;
+		// Hash move of the position that was ordered last (0 if there is none)
+		public int hashMove;
+
+		// Quiet moves that caused a beta cutoff, learned during the search:
+		// killers per ply from the root, history scores per [colour][from][to], and the
+		// reply that refuted each move (indexed by [from][to] of that move)
+		int[][] killerMoves;
+		int[][][] history;
+		int[][] counterMoves;
+		StaticExchangeEvaluation staticExchange;
 
 		public MoveOrdering (MoveGenerator moveGenerator, TranspositionTable tt) {
 			moveScores = new int[MAX_MOVE_COUNT];
+			killerMoves = new int[Search.MAX_PLY][NUM_KILLERS];
+			history = new int[2][64][64];
+			counterMoves = new int[64][64];
+			staticExchange = new StaticExchangeEvaluation();
 			this.moveGenerator = moveGenerator;
 			this.transpositionTable = tt;
 			invalidMove = Move.getInvalidMove();
 		}
 
-		public void OrderMoves (Board board, List<Move> moves, boolean useTT) {
-			Move hashMove = invalidMove;
-			if (useTT && transpositionTable.GetStoredMove() != null) {
-				hashMove = transpositionTable.GetStoredMove();
+		// Forgets everything learned in the previous search
+		public void ClearHistory () {
+			for (int[] killers : killerMoves) {
+				Arrays.fill(killers, 0);
 			}
+			for (int[][] colourHistory : history) {
+				for (int[] fromHistory : colourHistory) {
+					Arrays.fill(fromHistory, 0);
+				}
+			}
+			for (int[] counters : counterMoves) {
+				Arrays.fill(counters, 0);
+			}
+		}
 
-			for (int i = 0; i < moves.size(); i++) {
+		// Sorts the first numMoves move values in the given buffer, best first
+		public void OrderMoves (Board board, int[] moves, int numMoves, boolean useTT) {
+			OrderMoves(board, moves, numMoves, useTT, NO_PLY, 0);
+		}
+
+		// Sorts the moves, using the killers of the given ply and the countermove of the previous move (0 if none)
+		public void OrderMoves (Board board, int[] moves, int numMoves, boolean useTT, int plyFromRoot, int previousMove) {
+			short hashMoveValue = (useTT) ? transpositionTable.GetStoredMoveValue(board.ZobristKey) : invalidMove.moveValue;
+			hashMove = hashMoveValue;
+			ScoreMoves (board, moves, moveScores, numMoves, hashMoveValue, plyFromRoot, previousMove);
+			Sort (moves, moveScores, numMoves);
+		}
+
+		// Writes the score of each move into the scores array (higher is better). Uses the attack
+		// data of the move generator, so the moves must be the ones it generated last.
+		public void ScoreMoves (Board board, int[] moves, int[] scores, int numMoves, int hashMoveValue, int plyFromRoot, int previousMove) {
+			int colourIndex = board.colourToMoveIndex;
+			int firstKiller = (plyFromRoot != NO_PLY) ? killerMoves[plyFromRoot][0] : 0;
+			int secondKiller = (plyFromRoot != NO_PLY) ? killerMoves[plyFromRoot][1] : 0;
+			int counterMove = GetCounterMove (previousMove);
+
+			for (int i = 0; i < numMoves; i++) {
 				int score = 0;
-				int movePieceType = Piece.getPieceType (board.Square[moves.get(i).getStartSquare()]);
-				int capturePieceType = Piece.getPieceType (board.Square[moves.get(i).getTargetSquare()]);
-				int flag = moves.get(i).getMoveFlag();
+				int move = moves[i];
+				int movePieceType = Piece.getPieceType (board.Square[Move.getStartSquare(move)]);
+				int capturePieceType = Piece.getPieceType (board.Square[Move.getTargetSquare(move)]);
+				int flag = Move.getMoveFlag(move);
+				if (flag == Move.Flag.EnPassantCapture) {
+					capturePieceType = Piece.Pawn;
+				}
 
 				if (capturePieceType != Piece.None) {
 					// Order moves to try capturing the most valuable opponent piece with least valuable of own pieces first
-					// The capturedPieceValueMultiplier is used to make even 'bad' captures like QxP rank above non-captures
-					score = CAPTURED_PIECE_VAL_MULTIPLIER * GetPieceValue (capturePieceType) - GetPieceValue (movePieceType);
+					int captureScore = CAPTURED_PIECE_VAL_MULTIPLIER * GetPieceValue (capturePieceType) - GetPieceValue (movePieceType);
+					score = (staticExchange.LosesMaterial (board, move)) ? BAD_CAPTURE_SCORE + captureScore : CAPTURE_BONUS + captureScore;
+				} else if (flag == Move.Flag.PromoteToQueen) {
+					score = CAPTURE_BONUS;
+				} else if (move == firstKiller) {
+					score = FIRST_KILLER_BONUS;
+				} else if (move == secondKiller) {
+					score = SECOND_KILLER_BONUS;
+				} else if (move == counterMove) {
+					score = COUNTER_MOVE_BONUS;
+				} else if (!Move.isPromotion(move)) {
+					score = history[colourIndex][Move.getStartSquare(move)][Move.getTargetSquare(move)];
 				}
 
 				if (movePieceType == Piece.Pawn) {
@@ -55,18 +126,59 @@ public class MoveOrdering {
 					}
 				} else {
 					// Penalize moving piece to a square attacked by opponent pawn
-					if (BitBoardUtility.ContainsSquare (moveGenerator.opponentPawnAttackMap, moves.get(i).getTargetSquare())) {
+					if (BitBoardUtility.ContainsSquare (moveGenerator.opponentPawnAttackMap, Move.getTargetSquare(move))) {
 						score -= SQUARE_CONTROLLED_BY_OPP_PAWN_PENALTY;
 					}
 				}
-				if (moves.get(i).equals(hashMove)) {
-					score += 10000;
+				if (move == hashMoveValue) {
+					score += HASH_MOVE_BONUS;
 				}
 
-				moveScores[i] = score;
+				scores[i] = score;
+			}
+		}
+
+		public int GetKiller (int plyFromRoot, int killerIndex) {
+			return killerMoves[plyFromRoot][killerIndex];
+		}
+
+		// The move that refuted the previous move the last time it was played (0 if none)
+		public int GetCounterMove (int previousMove) {
+			return (previousMove != 0) ? counterMoves[Move.getStartSquare(previousMove)][Move.getTargetSquare(previousMove)] : 0;
+		}
+
+		// Called when a quiet move caused a beta cutoff. The given quiet moves were searched
+		// before it and didn't, so their history scores are lowered.
+		public void OnQuietCutoff (Board board, int move, int[] quietsSearched, int numQuietsSearched, int depth, int plyFromRoot, int previousMove) {
+			int colourIndex = board.colourToMoveIndex;
+			int bonus = Math.min(depth * depth, MAX_HISTORY);
+			UpdateHistory (colourIndex, move, bonus);
+			for (int i = 0; i < numQuietsSearched; i++) {
+				UpdateHistory (colourIndex, quietsSearched[i], -bonus);
+			}
+
+			int[] killers = killerMoves[plyFromRoot];
+			if (killers[0] != move) {
+				killers[1] = killers[0];
+				killers[0] = move;
+			}
+			if (previousMove != 0) {
+				counterMoves[Move.getStartSquare(previousMove)][Move.getTargetSquare(previousMove)] = move;
 			}
+		}
+
+		// Gravity update: the closer a score already is to the limit in the direction of the
+		// bonus, the less it changes. This keeps scores bounded and lets old results fade out.
+		void UpdateHistory (int colourIndex, int move, int bonus) {
+			int[] fromHistory = history[colourIndex][Move.getStartSquare(move)];
+			int targetSquare = Move.getTargetSquare(move);
+			fromHistory[targetSquare] += bonus - fromHistory[targetSquare] * Math.abs(bonus) / MAX_HISTORY;
+		}
 
-			Sort (moves);
+		// Quiet moves neither capture nor promote
+		public static boolean IsQuiet (Board board, int move) {
+			return board.Square[Move.getTargetSquare(move)] == Piece.None && !Move.isPromotion(move)
+					&& Move.getMoveFlag(move) != Move.Flag.EnPassantCapture;
 		}
 
 		static int GetPieceValue (int pieceType) {
@@ -86,15 +198,35 @@ public class MoveOrdering {
 			}
 		}
 
-		void Sort (List<Move> moves) {
+		// Moves the move with the highest score among the moves from index to numMoves
+		// to the index. Selecting the next move only when it's needed saves ordering
+		// the moves that are never searched because of a cutoff.
+		static void SelectBest (int[] moves, int[] moveScores, int index, int numMoves) {
+			int bestIndex = index;
+			for (int i = index + 1; i < numMoves; i++) {
+				if (moveScores[i] > moveScores[bestIndex]) {
+					bestIndex = i;
+				}
+			}
+			if (bestIndex != index) {
+				int move = moves[index];
+				moves[index] = moves[bestIndex];
+				moves[bestIndex] = move;
+				int score = moveScores[index];
+				moveScores[index] = moveScores[bestIndex];
+				moveScores[bestIndex] = score;
+			}
+		}
+
+		static void Sort (int[] moves, int[] moveScores, int numMoves) {
 			// Sort the moves list based on scores
-			for (int i = 0; i < moves.size() - 1; i++) {
+			for (int i = 0; i < numMoves - 1; i++) {
 				for (int j = i + 1; j > 0; j--) {
 					int swapIndex = j - 1;
 					if (moveScores[swapIndex] < moveScores[j]) {
-                        Move temp = moves.get(j);
-                        moves.set(j, moves.get(swapIndex));
-                        moves.set(swapIndex, temp);
+                        int temp = moves[j];
+                        moves[j] = moves[swapIndex];
+                        moves[swapIndex] = temp;
                         int tempScore = moveScores[j];
                         moveScores[j] = moveScores[swapIndex];
                         moveScores[swapIndex] = tempScore;
@@ -0,0 +1,178 @@
+package core.ai;
+
+import core.*;
+
+/**
+ * Hands out the legal moves of a position one at a time, in stages: the hash move,
+ * captures that don't lose material, the killers and the countermove, the other quiet
+ * moves, and finally the captures that lose material. A stage is only generated once
+ * the moves of the stages before it are used up, and within a stage the best remaining
+ * move is selected when it is needed instead of sorting all of them, so a node where
+ * one of the first moves causes a cutoff doesn't pay for the rest.
+ * Each ply of the search has its own picker, since the moves of a position are handed
+ * out while the positions below it are searched.
+ */
+public class MovePicker {
+
+    // Stages, in the order in which they hand out moves
+    static final int HASH_MOVE = 0;
+    static final int GENERATE_CAPTURES = 1;
+    static final int GOOD_CAPTURES = 2;
+    static final int KILLERS = 3;
+    static final int GENERATE_QUIETS = 4;
+    static final int QUIETS = 5;
+    static final int BAD_CAPTURES = 6;
+    static final int DONE = 7;
+
+    static final int NUM_REFUTATIONS = MoveOrdering.NUM_KILLERS + 1; // killers and the countermove
+
+    final MoveGenerator moveGenerator;
+    final MoveOrdering moveOrdering;
+    final int[] captures = new int[MoveGenerator.MAX_MOVE_COUNT];
+    final int[] captureScores = new int[MoveGenerator.MAX_MOVE_COUNT];
+    final int[] quiets = new int[MoveGenerator.MAX_MOVE_COUNT];
+    final int[] quietScores = new int[MoveGenerator.MAX_MOVE_COUNT];
+    // Killers and countermove of this position, and which of them have been handed out
+    final int[] refutations = new int[NUM_REFUTATIONS];
+    final boolean[] refutationPicked = new boolean[NUM_REFUTATIONS];
+
+    Board board;
+    // Hash move of the position if it is legal, 0 otherwise
+    public int hashMove;
+    int plyFromRoot;
+    int previousMove;
+    int stage;
+    int numCaptures;
+    int numQuiets;
+    int captureIndex;
+    int quietIndex;
+    int refutationIndex;
+    boolean capturesOnly;
+
+    public MovePicker(MoveGenerator moveGenerator, MoveOrdering moveOrdering) {
+        this.moveGenerator = moveGenerator;
+        this.moveOrdering = moveOrdering;
+    }
+
+    // Starts picking the moves of the current position. The hash move is only checked for
+    // legality here, the moves are generated when they're needed.
+    public void Init(Board board, int hashMove, int plyFromRoot, int previousMove) {
+        this.board = board;
+        this.hashMove = MoveGenerator.IsLegal(board, hashMove) ? hashMove : 0;
+        this.plyFromRoot = plyFromRoot;
+        this.previousMove = previousMove;
+        stage = HASH_MOVE;
+        numCaptures = 0;
+        numQuiets = 0;
+        captureIndex = 0;
+        quietIndex = 0;
+        refutationIndex = 0;
+        capturesOnly = false;
+    }
+
+    // Starts picking only the captures of the current position (for the quiescence search),
+    // the ones that don't lose material first
+    public void InitCaptures(Board board) {
+        Init(board, 0, MoveOrdering.NO_PLY, 0);
+        stage = GENERATE_CAPTURES;
+        capturesOnly = true;
+    }
+
+    // Returns the next move to search, or 0 once all legal moves have been picked.
+    // Each stage falls through into the next one on purpose once its moves are used up.
+    @SuppressWarnings("fallthrough")
+    public int NextMove() {
+        switch (stage) {
+            case HASH_MOVE:
+                stage = GENERATE_CAPTURES;
+                if (hashMove != 0) {
+                    return hashMove;
+                }
+                // fall through
+            case GENERATE_CAPTURES:
+                // The move generator is shared by all plies, so the moves have to be scored
+                // right away, while its attack data still belongs to this position
+                numCaptures = moveGenerator.generateMoves(board, captures, false);
+                moveOrdering.ScoreMoves(board, captures, captureScores, numCaptures, 0, plyFromRoot, previousMove);
+                stage = GOOD_CAPTURES;
+                // fall through
+            case GOOD_CAPTURES:
+                // Captures that lose material are scored far below zero, so they come last
+                while (captureIndex < numCaptures) {
+                    MoveOrdering.SelectBest(captures, captureScores, captureIndex, numCaptures);
+                    if (captureScores[captureIndex] < 0) {
+                        break;
+                    }
+                    int move = captures[captureIndex++];
+                    if (move != hashMove) {
+                        return move;
+                    }
+                }
+                if (capturesOnly) {
+                    stage = BAD_CAPTURES;
+                    return NextMove();
+                }
+                refutations[0] = moveOrdering.GetKiller(plyFromRoot, 0);
+                refutations[1] = moveOrdering.GetKiller(plyFromRoot, 1);
+                refutations[2] = moveOrdering.GetCounterMove(previousMove);
+                stage = KILLERS;
+                // fall through
+            case KILLERS:
+                // Killers and countermoves were found in other positions, so check that they can be played here
+                while (refutationIndex < NUM_REFUTATIONS) {
+                    int i = refutationIndex++;
+                    int move = refutations[i];
+                    refutationPicked[i] = move != 0 && move != hashMove && !IsPickedRefutation(move, i)
+                            && MoveOrdering.IsQuiet(board, move) && MoveGenerator.IsLegal(board, move);
+                    if (refutationPicked[i]) {
+                        return move;
+                    }
+                }
+                stage = GENERATE_QUIETS;
+                // fall through
+            case GENERATE_QUIETS:
+                numQuiets = moveGenerator.generateQuietMoves(board, quiets);
+                moveOrdering.ScoreMoves(board, quiets, quietScores, numQuiets, 0, plyFromRoot, previousMove);
+                stage = QUIETS;
+                // fall through
+            case QUIETS:
+                while (quietIndex < numQuiets) {
+                    MoveOrdering.SelectBest(quiets, quietScores, quietIndex, numQuiets);
+                    int move = quiets[quietIndex++];
+                    if (move != hashMove && !IsPickedRefutation(move, NUM_REFUTATIONS)) {
+                        return move;
+                    }
+                }
+                stage = BAD_CAPTURES;
+                // fall through
+            case BAD_CAPTURES:
+                while (captureIndex < numCaptures) {
+                    MoveOrdering.SelectBest(captures, captureScores, captureIndex, numCaptures);
+                    int move = captures[captureIndex++];
+                    if (move != hashMove) {
+                        return move;
+                    }
+                }
+                stage = DONE;
+                // fall through
+            default:
+                return 0;
+        }
+    }
+
+    // Whether the moves handed out now are captures that lose material according to the static
+    // exchange evaluation (all moves handed out from here on are)
+    public boolean IsPickingBadCaptures() {
+        return stage == BAD_CAPTURES;
+    }
+
+    // Whether the move is one of the first numRefutations refutations that were handed out
+    boolean IsPickedRefutation(int move, int numRefutations) {
+        for (int i = 0; i < numRefutations; i++) {
+            if (refutationPicked[i] && refutations[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+package core.ai;
+
+/**
+ * Direct-mapped cache of pawn structure evaluations, keyed by the pawn Zobrist
+ * key of the board. The pawn structure changes much less often than the rest of
+ * the position, so most lookups hit. Each Evaluation owns its own table, so no
+ * synchronization is needed.
+ */
+public class PawnHashTable {
+
+    // Entries are stored in parallel arrays. A position without pawns has key 0, which
+    // matches the empty entries, and their score and passed pawns are 0 as well.
+    final long[] keys;
+    final int[] scores;
+    final long[] passedPawns;
+    final int indexMask;
+
+    // Since the last search started, reported in the search diagnostics
+    public long numLookups;
+    public long numHits;
+
+    // numEntries is rounded down to a power of two
+    public PawnHashTable(int numEntries) {
+        int size = Integer.highestOneBit(Math.max(1, numEntries));
+        keys = new long[size];
+        scores = new int[size];
+        passedPawns = new long[size];
+        indexMask = size - 1;
+    }
+
+    public int Index(long pawnKey) {
+        return (int) pawnKey & indexMask;
+    }
+
+    // Whether the entry at the index holds the pawn structure with the given key
+    public boolean Contains(int index, long pawnKey) {
+        numLookups++;
+        if (keys[index] == pawnKey) {
+            numHits++;
+            return true;
+        }
+        return false;
+    }
+
+    public void Store(int index, long pawnKey, int score, long passedPawnMask) {
+        keys[index] = pawnKey;
+        scores[index] = score;
+        passedPawns[index] = passedPawnMask;
+    }
+
+    public int GetScore(int index) {
+        return scores[index];
+    }
+
+    public long GetPassedPawns(int index) {
+        return passedPawns[index];
+    }
+}
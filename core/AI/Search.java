@@ -1,110 +1,358 @@
 package core.ai;
 
-import java.util.List;
+import java.util.function.Consumer;
 
 import core.*;
+import core.util.*;
 
 public class Search {
 
 	// settings
-	public static final int MAX_SEARCH_DEPTH = 5;
+	public static final int MAX_SEARCH_DEPTH = 5; // default depth of fixed depth searches
+	public static final int MAX_TIMED_SEARCH_DEPTH = 64;
 	public static final int DELAY_PER_MOVE = 500; // in ms
 	public static final boolean TT_ENABLED = true;
 
-	static final int TT_SIZE = 64000;
+	static final int TIME_CHECK_INTERVAL = 1024; // nodes between checks of the clock
+	static final int MAX_PLY = 128; // deepest ply (including quiescence search) that has a move buffer
 	static final int IMMEDIATE_MATE_SCORE = 100000;
+	static final int DELTA_MARGIN = 200; // positional gain a capture in the quiescence search may bring on top of the material
+	static final int MAX_ASPIRATION_WINDOW = 1000; // aspiration windows that would be wider than this are opened fully
 	static final int POSITIVE_INFINITY = 9999999;
 	static final int NEGATIVE_INFINITY = -POSITIVE_INFINITY;
 
 	TranspositionTable tt;
+	EvaluationCache evaluationCache;
 	MoveGenerator moveGenerator;
 
-	Move bestMoveThisIteration;
+	// Moves are kept as move values (see Move) during the search, 0 being the invalid move
+	int bestMoveThisIteration;
 	int bestEvalThisIteration;
-	Move bestMove;
+	int bestMove;
 	int bestEval;
 	int currentIterativeSearchDepth;
-	boolean abortSearch;
-
-	Move invalidMove;
+	volatile boolean abortSearch;
+	TimeManager timeManager;
+	int nodesUntilTimeCheck;
+
+	// Late move reduction for each depth and move index, calculated from the settings at the start of each search
+	int[][] lateMoveReductions;
+	// Move made at each ply from the root on the way to the current position (0 for a null move)
+	int[] movesMadeAtPly;
+	// Staged move picker for each ply from the root, and the quiet moves searched so far at each ply
+	MovePicker[] movePickers;
+	int[][] quietsSearched;
 	MoveOrdering moveOrdering;
+	StaticExchangeEvaluation staticExchange;
 	Board board;
 	Evaluation evaluation;
 	AIPlayer player;
+	AISettings settings;
+
+	// Lazy SMP: helper searches run on their own threads over a copy of the board and
+	// only communicate with the main search through the shared transposition table
+	Search[] helpers;
+	int threadIndex;
 
 	// Diagnostics
 	public SearchDiagnostics searchDiagnostics;
+	// Called on the search thread after each completed iteration of the main search (e.g. to report progress)
+	public Consumer<SearchDiagnostics> onIterationComplete;
 	int numNodes;
 	int numQNodes;
 	int numCutoffs;
 	int numTranspositions;
+	int numResearches; // PVS re-searches with the full window after a null window search failed high
+	int numNullMoveCutoffs;
+	int numReductionResearches; // reduced searches that failed high and had to be searched to the full depth
+	int numEvalCacheLookups;
+	int numEvalCacheHits;
+	int numAspirationFailLows; // iterations searched again because the score fell below the aspiration window
+	int numAspirationFailHighs; // iterations searched again because the score rose above the aspiration window
+	long numAspirationResearchNodes; // nodes searched in aspiration windows that failed
 	// System.Diagnostics.Stopwatch searchStopwatch;
 
 	public Search(Board board, AIPlayer player) {
+		this(board, player, new AISettings());
+	}
+
+	public Search(Board board, AIPlayer player, AISettings settings) {
+		this(board, new TranspositionTable(settings.transpositionTableSizeMB),
+				new EvaluationCache(settings.evaluationCacheSizeMB), settings, 0);
+		this.player = player;
+
+		int numHelpers = (settings.useThreading) ? Math.max(0, settings.numThreads - 1) : 0;
+		helpers = new Search[numHelpers];
+		for (int i = 0; i < numHelpers; i++) {
+			helpers[i] = new Search(new Board(), tt, evaluationCache, settings, i + 1);
+		}
+	}
+
+	// Creates a helper search that shares the given transposition table and evaluation
+	// cache but owns its board, move generator, move ordering and evaluation.
+	Search(Board board, TranspositionTable tt, EvaluationCache evaluationCache, AISettings settings, int threadIndex) {
 		this.board = board;
+		this.tt = tt;
+		this.evaluationCache = evaluationCache;
+		this.settings = settings;
+		this.threadIndex = threadIndex;
 		evaluation = new Evaluation();
 		moveGenerator = new MoveGenerator();
-		tt = new TranspositionTable(board, TT_SIZE);
 		moveOrdering = new MoveOrdering(moveGenerator, tt);
-		invalidMove = Move.getInvalidMove();
-		this.player = player;
+		staticExchange = new StaticExchangeEvaluation();
+		movesMadeAtPly = new int[MAX_PLY];
+		movePickers = new MovePicker[MAX_PLY];
+		for (int i = 0; i < MAX_PLY; i++) {
+			movePickers[i] = new MovePicker(moveGenerator, moveOrdering);
+		}
+		quietsSearched = new int[MAX_PLY][MoveGenerator.MAX_MOVE_COUNT];
+		timeManager = new TimeManager();
+		helpers = new Search[0];
 	}
 
 	public void StartSearch() {
+		tt.enabled = TT_ENABLED;
+		// The table is kept between searches, so that the results of the previous move (and
+		// game) are reused. Entries of earlier searches are replaced first (see NewSearch).
+		if (settings.clearTTEachMove) {
+			tt.Clear();
+		}
+		tt.NewSearch();
+
+		lateMoveReductions = CalculateLateMoveReductions(settings);
+
+		// Helpers are initialized before any thread is started, so that an early
+		// EndSearch() from this thread can't be overwritten by a helper starting late
+		InitSearch();
+		if (settings.useFixedDepthSearch || settings.endlessSearchMode) {
+			timeManager.StartInfinite();
+		} else if (settings.clockRemainingMillis > 0) {
+			timeManager.Start(settings.clockRemainingMillis, settings.clockIncrementMillis, settings.movesToGo);
+		} else {
+			timeManager.StartFixed(settings.searchTimeMillis);
+		}
+
+		Thread[] helperThreads = new Thread[helpers.length];
+		for (int i = 0; i < helpers.length; i++) {
+			Search helper = helpers[i];
+			board.CopyInto(helper.board);
+			helper.lateMoveReductions = lateMoveReductions;
+			helper.InitSearch();
+			helper.timeManager.StartInfinite(); // helpers run until the main search stops them
+			helperThreads[i] = new Thread(helper::RunIterativeDeepening, "search-helper-" + helper.threadIndex);
+			helperThreads[i].start();
+		}
+
+		RunIterativeDeepening();
+
+		// The main search is done, so stop the helpers and take the deepest completed result
+		for (Search helper : helpers) {
+			helper.EndSearch();
+		}
+		for (int i = 0; i < helpers.length; i++) {
+			try {
+				helperThreads[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			Search helper = helpers[i];
+			searchDiagnostics.numEvalCacheLookups += helper.numEvalCacheLookups;
+			searchDiagnostics.numEvalCacheHits += helper.numEvalCacheHits;
+			searchDiagnostics.numPawnTableLookups += helper.evaluation.pawnTable.numLookups;
+			searchDiagnostics.numPawnTableHits += helper.evaluation.pawnTable.numHits;
+			searchDiagnostics.numAspirationFailLows += helper.numAspirationFailLows;
+			searchDiagnostics.numAspirationFailHighs += helper.numAspirationFailHighs;
+			searchDiagnostics.numAspirationResearchNodes += helper.numAspirationResearchNodes;
+			if (helper.currentIterativeSearchDepth > currentIterativeSearchDepth && helper.bestMove != 0) {
+				currentIterativeSearchDepth = helper.currentIterativeSearchDepth;
+				bestMove = helper.bestMove;
+				bestEval = helper.bestEval;
+				searchDiagnostics.lastCompletedDepth = currentIterativeSearchDepth;
+				searchDiagnostics.move = GetSearchResult().toString();
+				searchDiagnostics.eval = bestEval;
+			}
+		}
+		searchDiagnostics.numNodes = TotalNodes();
+		searchDiagnostics.hashfull = tt.Hashfull();
+		searchDiagnostics.numEvalCacheLookups += numEvalCacheLookups;
+		searchDiagnostics.numEvalCacheHits += numEvalCacheHits;
+		searchDiagnostics.numPawnTableLookups += evaluation.pawnTable.numLookups;
+		searchDiagnostics.numPawnTableHits += evaluation.pawnTable.numHits;
+		searchDiagnostics.numAspirationFailLows += numAspirationFailLows;
+		searchDiagnostics.numAspirationFailHighs += numAspirationFailHighs;
+		searchDiagnostics.numAspirationResearchNodes += numAspirationResearchNodes;
+
+		// Searches started outside of a game (e.g. benchmarks) have no player to notify
+		if (player != null) {
+			player.OnSearchComplete(GetSearchResult());
+		}
+	}
+
+	void InitSearch() {
 		// Initialize search settings
 		bestEvalThisIteration = bestEval = 0;
-		bestMoveThisIteration = bestMove = Move.getInvalidMove();
-		tt.enabled = TT_ENABLED;
-		tt.Clear(); // clearing the transposition table before each search seems to help
+		bestMoveThisIteration = bestMove = 0;
 
 		currentIterativeSearchDepth = 0;
 		abortSearch = false;
+		nodesUntilTimeCheck = TIME_CHECK_INTERVAL;
+		numNodes = 0;
+		numEvalCacheLookups = 0;
+		numEvalCacheHits = 0;
+		evaluation.pawnTable.numLookups = 0;
+		evaluation.pawnTable.numHits = 0;
+		numAspirationFailLows = 0;
+		numAspirationFailHighs = 0;
+		numAspirationResearchNodes = 0;
+		moveOrdering.ClearHistory();
 		searchDiagnostics = new SearchDiagnostics();
+	}
 
+	void RunIterativeDeepening() {
 		// iterative deepening
-		int targetDepth = MAX_SEARCH_DEPTH;
-
-		for (int searchDepth = 1; searchDepth <= targetDepth; searchDepth++) {
-			SearchMoves(searchDepth, 0, NEGATIVE_INFINITY, POSITIVE_INFINITY);
+		int targetDepth = (settings.useFixedDepthSearch) ? settings.depth : MAX_TIMED_SEARCH_DEPTH;
+		// Half of the helpers start one ply deeper so that the threads spread out over
+		// different depths instead of all searching the same tree in lockstep
+		int startDepth = 1 + (threadIndex & 1);
+
+		for (int searchDepth = startDepth; searchDepth <= targetDepth; searchDepth++) {
+			long iterationStartMillis = timeManager.ElapsedMillis();
+			SearchRoot(searchDepth);
 			if (abortSearch) {
+				// Moves found in an aborted iteration have been searched completely, so
+				// they're better than nothing if not even the first iteration finished
+				if (bestMove == 0) {
+					bestMove = bestMoveThisIteration;
+					bestEval = bestEvalThisIteration;
+				}
 				break;
 			} else {
+				// No move at the root means checkmate or stalemate, deeper searches won't find one either
+				if (bestMoveThisIteration == 0) {
+					break;
+				}
 				currentIterativeSearchDepth = searchDepth;
 				bestMove = bestMoveThisIteration;
 				bestEval = bestEvalThisIteration;
 
 				// Update diagnostics
 				searchDiagnostics.lastCompletedDepth = searchDepth;
-				searchDiagnostics.move = bestMove.toString();
+				searchDiagnostics.move = GetSearchResult().toString();
 				searchDiagnostics.eval = bestEval;
+				if (onIterationComplete != null) {
+					searchDiagnostics.numNodes = TotalNodes();
+					searchDiagnostics.timeMillis = timeManager.ElapsedMillis();
+					searchDiagnostics.principalVariation = GetPrincipalVariation(searchDepth);
+					searchDiagnostics.hashfull = tt.Hashfull();
+					onIterationComplete.accept(searchDiagnostics);
+				}
 
 				// Exit search if found a mate
 				if (IsMateScore(bestEval)) {
 					break;
 				}
+				// Exit search if the next iteration is unlikely to finish in time
+				if (!timeManager.CanStartIteration(timeManager.ElapsedMillis() - iterationStartMillis)) {
+					break;
+				}
 			}
 		}
-		player.OnSearchComplete(bestMove);
 	}
 
+	// Searches the root with an aspiration window: the score of the previous iteration is
+	// usually close to the score of this one, so a narrow window around it lets more moves
+	// be cut off. If the score falls outside of the window, the window is widened on that
+	// side (by twice as much each time) and the root is searched again.
+	int SearchRoot(int depth) {
+		if (!settings.useAspirationWindows || depth < settings.aspirationMinDepth || IsMateScore(bestEval)) {
+			return SearchMoves(depth, 0, NEGATIVE_INFINITY, POSITIVE_INFINITY, true);
+		}
+		int window = settings.aspirationWindow;
+		int alpha = bestEval - window;
+		int beta = bestEval + window;
+		while (true) {
+			int numNodesBefore = numNodes;
+			int eval = SearchMoves(depth, 0, alpha, beta, true);
+			if (abortSearch || (eval > alpha && eval < beta)) {
+				return eval;
+			}
+			numAspirationResearchNodes += numNodes - numNodesBefore;
+			window *= 2;
+			if (eval <= alpha) {
+				numAspirationFailLows++;
+				alpha = (window > MAX_ASPIRATION_WINDOW) ? NEGATIVE_INFINITY : Math.max(eval - window, NEGATIVE_INFINITY);
+			} else {
+				numAspirationFailHighs++;
+				beta = (window > MAX_ASPIRATION_WINDOW) ? POSITIVE_INFINITY : Math.min(eval + window, POSITIVE_INFINITY);
+			}
+		}
+	}
+
+	// The best move found, or an invalid move if the position has no legal moves
 	public Move GetSearchResult() {
-		return bestMove;
+		return new Move((short) bestMove);
 	}
 
 	public void EndSearch() {
 		abortSearch = true;
 	}
 
-	int SearchMoves(int depth, int plyFromRoot, int alpha, int beta) {
-		if (abortSearch) {
+	// The transposition table shared by this search and its helpers (e.g. to save it to a file)
+	public TranspositionTable GetTranspositionTable() {
+		return tt;
+	}
+
+	// Nodes searched so far by this search and its helpers. Counts of running helpers
+	// are read without synchronization, so they may lag behind slightly.
+	long TotalNodes() {
+		long totalNodes = numNodes;
+		for (Search helper : helpers) {
+			totalNodes += helper.numNodes;
+		}
+		return totalNodes;
+	}
+
+	// Principal variation in long algebraic notation, starting with the best move and
+	// following the moves stored in the transposition table for as long as they're legal.
+	String GetPrincipalVariation(int maxLength) {
+		StringBuilder pv = new StringBuilder();
+		int[] movesMade = new int[maxLength];
+		int numMovesMade = 0;
+		int move = bestMove;
+		while (move != 0 && numMovesMade < maxLength && MoveGenerator.IsLegal(board, move)) {
+			pv.append(numMovesMade > 0 ? " " : "").append(new Move((short) move));
+			board.MakeMove(move, true);
+			movesMade[numMovesMade++] = move;
+			move = tt.GetStoredMoveValue(board.ZobristKey);
+		}
+		for (int i = numMovesMade - 1; i >= 0; i--) {
+			board.UnmakeMove(movesMade[i], true);
+		}
+		return pv.toString();
+	}
+
+	// Aborts the search once the hard time limit has been reached. Reading the clock is
+	// comparatively slow, so it is only done every TIME_CHECK_INTERVAL nodes.
+	boolean CheckAbort() {
+		if (--nodesUntilTimeCheck <= 0) {
+			nodesUntilTimeCheck = TIME_CHECK_INTERVAL;
+			if (timeManager.HardLimitReached()) {
+				abortSearch = true;
+			}
+		}
+		return abortSearch;
+	}
+
+	int SearchMoves(int depth, int plyFromRoot, int alpha, int beta, boolean allowNullMove) {
+		if (CheckAbort()) {
 			return 0;
 		}
 
 		if (plyFromRoot > 0) {
 			// Detect draw by repetition.
-			// Returns a draw score even if this position has only appeared once in the game
-			// history (for simplicity).
-			if (board.RepetitionPositionHistory.contains(board.ZobristKey)) {
+			// Returns a draw score even if this position has only appeared once before
+			// (for simplicity).
+			if (board.IsRepetition()) {
 				return 0;
 			}
 
@@ -122,105 +370,235 @@ public class Search {
 		// Try looking up the current position in the transposition table.
 		// If the same position has already been searched to at least an equal depth
 		// to the search we're doing now,we can just use the recorded evaluation.
-		int ttVal = tt.LookupEvaluation(depth, plyFromRoot, alpha, beta);
-		if (ttVal != TranspositionTable.lookupFailed) {
-			numTranspositions++;
-			if (plyFromRoot == 0) {
-				bestMoveThisIteration = tt.GetStoredMove();
-				bestEvalThisIteration = tt.entries[(int) tt.Index()].value;
-				// Debug.Log ("move retrieved " + bestMoveThisIteration.Name + " Node type: " +
-				// tt.entries[tt.Index].nodeType + " depth: " + tt.entries[tt.Index].depth);
+		// Not at the root: the table is kept between searches, so a search of the same
+		// position would otherwise return at once without searching anything.
+		if (plyFromRoot > 0) {
+			int ttVal = tt.LookupEvaluation(board.ZobristKey, depth, plyFromRoot, alpha, beta);
+			if (ttVal != TranspositionTable.lookupFailed) {
+				numTranspositions++;
+				return ttVal;
 			}
-			return ttVal;
 		}
 
 		if (depth == 0) {
-			int evaluation = QuiescenceSearch(alpha, beta);
+			int evaluation = QuiescenceSearch(plyFromRoot, alpha, beta);
 			return evaluation;
 		}
 
-		List<Move> moves = moveGenerator.generateMoves(board);
-		moveOrdering.OrderMoves(board, moves, TT_ENABLED);
-		// Detect checkmate and stalemate when no legal moves are available
-		if (moves.size() == 0) {
-			if (moveGenerator.isInCheck()) {
-				int mateScore = IMMEDIATE_MATE_SCORE - plyFromRoot;
-				return -mateScore;
-			} else {
+		boolean inCheck = MoveGenerator.IsInCheck(board);
+		int previousMove = (plyFromRoot > 0) ? movesMadeAtPly[plyFromRoot - 1] : 0;
+
+		// Null move pruning: if the position is still good enough for a beta cutoff after
+		// passing the turn to the opponent, a real move would (almost always) be as well.
+		// Not done when in check (passing would be illegal), twice in a row, or without
+		// pieces other than pawns, where zugzwang makes passing better than any move.
+		if (settings.useNullMovePruning && allowNullMove && plyFromRoot > 0 && !inCheck
+				&& depth > settings.nullMoveReduction && !IsMateScore(beta) && HasNonPawnMaterial()) {
+			movesMadeAtPly[plyFromRoot] = 0;
+			board.MakeNullMove();
+			int nullMoveEval = -SearchMoves(depth - 1 - settings.nullMoveReduction, plyFromRoot + 1, -beta, -beta + 1,
+					false);
+			board.UnmakeNullMove();
+			if (abortSearch) {
 				return 0;
 			}
+			if (nullMoveEval >= beta) {
+				numNullMoveCutoffs++;
+				return nullMoveEval;
+			}
 		}
 
 		int evalType = TranspositionTable.UpperBound;
-		Move bestMoveInThisPosition = invalidMove;
+		int bestMoveInThisPosition = 0;
+		// Fail-soft: the best score found is returned even if it lies outside of the
+		// window, which gives tighter bounds to store in the transposition table
+		int bestScore = NEGATIVE_INFINITY;
+
+		// Moves are generated in stages while they're searched, starting with the hash move,
+		// so that a cutoff by one of the first moves saves generating the others
+		MovePicker movePicker = movePickers[plyFromRoot];
+		movePicker.Init(board, (TT_ENABLED) ? tt.GetStoredMoveValue(board.ZobristKey) : 0, plyFromRoot, previousMove);
+		int hashMove = movePicker.hashMove;
+		int[] quiets = quietsSearched[plyFromRoot];
+		int numQuiets = 0;
+		int i = 0;
+
+		for (int move = movePicker.NextMove(); move != 0; move = movePicker.NextMove(), i++) {
+			boolean isQuiet = MoveOrdering.IsQuiet(board, move);
+			movesMadeAtPly[plyFromRoot] = move;
+			board.MakeMove(move, true);
+			int eval;
+			if (i == 0) {
+				eval = -SearchMoves(depth - 1, plyFromRoot + 1, -beta, -alpha, true);
+			} else {
+				// Late move reductions: quiet moves that the move ordering put late are
+				// unlikely to be good, so search them less deeply unless they turn out to raise alpha
+				int reduction = 0;
+				if (settings.useLateMoveReductions && depth >= settings.lmrMinDepth && i >= settings.lmrMinMoveIndex
+						&& isQuiet && !inCheck && move != hashMove && !MoveGenerator.IsInCheck(board)) {
+					reduction = Math.min(lateMoveReductions[Math.min(depth, MAX_PLY - 1)][i], depth - 1);
+				}
 
-		for (int i = 0; i < moves.size(); i++) {
-			board.MakeMove(moves.get(i), true);
-			int eval = -SearchMoves(depth - 1, plyFromRoot + 1, -beta, -alpha);
-			board.UnmakeMove(moves.get(i), true);
+				// Principal variation search: with good move ordering the first move is
+				// most likely the best, so only prove that the others are worse using a
+				// null window, and search them again with the full window if that fails
+				eval = -SearchMoves(depth - 1 - reduction, plyFromRoot + 1, -alpha - 1, -alpha, true);
+				if (eval > alpha && reduction > 0) {
+					numReductionResearches++;
+					eval = -SearchMoves(depth - 1, plyFromRoot + 1, -alpha - 1, -alpha, true);
+				}
+				if (eval > alpha && eval < beta) {
+					numResearches++;
+					eval = -SearchMoves(depth - 1, plyFromRoot + 1, -beta, -alpha, true);
+				}
+			}
+			board.UnmakeMove(move, true);
 			numNodes++;
 
+			// The result of an aborted search is meaningless, so don't store or use it
+			if (abortSearch) {
+				return 0;
+			}
+
+			if (eval > bestScore) {
+				bestScore = eval;
+			}
+
 			// Move was *too* good, so opponent won't allow this position to be reached
 			// (by choosing a different move earlier on). Skip remaining moves.
 			if (eval >= beta) {
-				tt.StoreEvaluation(depth, plyFromRoot, beta, TranspositionTable.LowerBound, moves.get(i));
+				tt.StoreEvaluation(board.ZobristKey, depth, plyFromRoot, eval, TranspositionTable.LowerBound, move);
+				// Only happens at the root when the aspiration window was too low. The move is
+				// better than the previous best, so it's kept in case the search is aborted.
+				if (plyFromRoot == 0) {
+					bestMoveThisIteration = move;
+					bestEvalThisIteration = eval;
+				}
+				if (isQuiet) {
+					moveOrdering.OnQuietCutoff(board, move, quiets, numQuiets, depth, plyFromRoot, previousMove);
+				}
 				numCutoffs++;
-				return beta;
+				return eval;
 			}
 
 			// Found a new best move in this position
 			if (eval > alpha) {
 				evalType = TranspositionTable.Exact;
-				bestMoveInThisPosition = moves.get(i);
+				bestMoveInThisPosition = move;
 
 				alpha = eval;
 				if (plyFromRoot == 0) {
-					bestMoveThisIteration = moves.get(i);
+					bestMoveThisIteration = move;
 					bestEvalThisIteration = eval;
 				}
 			}
+			if (isQuiet) {
+				quiets[numQuiets++] = move;
+			}
 		}
 
-		tt.StoreEvaluation(depth, plyFromRoot, alpha, evalType, bestMoveInThisPosition);
+		// Detect checkmate and stalemate when no legal moves are available
+		if (i == 0) {
+			return (inCheck) ? -(IMMEDIATE_MATE_SCORE - plyFromRoot) : 0;
+		}
 
-		return alpha;
+		tt.StoreEvaluation(board.ZobristKey, depth, plyFromRoot, bestScore, evalType, bestMoveInThisPosition);
+
+		return bestScore;
 
 	}
 
 	// Search capture moves until a 'quiet' position is reached.
-	int QuiescenceSearch(int alpha, int beta) {
+	int QuiescenceSearch(int plyFromRoot, int alpha, int beta) {
+		if (CheckAbort()) {
+			return 0;
+		}
 		// A player isn't forced to make a capture (typically), so see what the
 		// evaluation is without capturing anything.
 		// This prevents situations where a player ony has bad captures available from
 		// being evaluated as bad,
 		// when the player might have good non-capture moves available.
-		int eval = evaluation.Evaluate(board);
+		int standPatEval = Evaluate();
 		searchDiagnostics.numPositionsEvaluated++;
-		if (eval >= beta) {
-			return beta;
+		if (standPatEval >= beta) {
+			return standPatEval;
+		}
+		int bestScore = standPatEval;
+		if (standPatEval > alpha) {
+			alpha = standPatEval;
 		}
-		if (eval > alpha) {
-			alpha = eval;
+		if (plyFromRoot >= MAX_PLY) {
+			return bestScore;
 		}
 
-		var moves = moveGenerator.generateMoves(board, false);
-		moveOrdering.OrderMoves(board, moves, false);
-		for (int i = 0; i < moves.size(); i++) {
-			board.MakeMove(moves.get(i), true);
-			eval = -QuiescenceSearch(-beta, -alpha);
-			board.UnmakeMove(moves.get(i), true);
+		MovePicker movePicker = movePickers[plyFromRoot];
+		movePicker.InitCaptures(board);
+		for (int move = movePicker.NextMove(); move != 0; move = movePicker.NextMove()) {
+			// Delta pruning: even winning the captured piece for free wouldn't raise alpha
+			if (settings.useDeltaPruning && !Move.isPromotion(move)) {
+				int capturedPieceType = (Move.getMoveFlag(move) == Move.Flag.EnPassantCapture) ? Piece.Pawn
+						: Piece.getPieceType(board.Square[Move.getTargetSquare(move)]);
+				if (standPatEval + MoveOrdering.GetPieceValue(capturedPieceType) + DELTA_MARGIN <= alpha) {
+					continue;
+				}
+			}
+			// The picker has already sorted out the captures that lose material, and hands them out last
+			if (settings.useQuiescenceSeePruning && movePicker.IsPickingBadCaptures()) {
+				break;
+			}
+
+			board.MakeMove(move, true);
+			int eval = -QuiescenceSearch(plyFromRoot + 1, -beta, -alpha);
+			board.UnmakeMove(move, true);
 			numQNodes++;
 
 			if (eval >= beta) {
 				numCutoffs++;
-				return beta;
+				return eval;
+			}
+			if (eval > bestScore) {
+				bestScore = eval;
 			}
 			if (eval > alpha) {
 				alpha = eval;
 			}
 		}
 
-		return alpha;
+		return bestScore;
+	}
+
+	static int[][] CalculateLateMoveReductions(AISettings settings) {
+		int[][] reductions = new int[MAX_PLY][MoveGenerator.MAX_MOVE_COUNT];
+		for (int depth = 1; depth < MAX_PLY; depth++) {
+			for (int moveIndex = 1; moveIndex < MoveGenerator.MAX_MOVE_COUNT; moveIndex++) {
+				double reduction = settings.lmrBase + Math.log(depth) * Math.log(moveIndex) / settings.lmrDivisor;
+				reductions[depth][moveIndex] = Math.max(0, (int) reduction);
+			}
+		}
+		return reductions;
+	}
+
+	// Static evaluation of the current position, from the evaluation cache if it has been evaluated before
+	int Evaluate() {
+		if (!settings.useEvaluationCache) {
+			return evaluation.Evaluate(board);
+		}
+		numEvalCacheLookups++;
+		int eval = evaluationCache.Lookup(board.ZobristKey);
+		if (eval != EvaluationCache.lookupFailed) {
+			numEvalCacheHits++;
+			return eval;
+		}
+		eval = evaluation.Evaluate(board);
+		evaluationCache.Store(board.ZobristKey, eval);
+		return eval;
+	}
+
+	// Whether the side to move has any pieces besides pawns and the king
+	boolean HasNonPawnMaterial() {
+		int colourIndex = board.colourToMoveIndex;
+		long pawnsAndKing = board.GetPieceBitboard(Piece.Pawn, colourIndex) | board.GetPieceBitboard(Piece.King, colourIndex);
+		return (board.colourBitboards[colourIndex] & ~pawnsAndKing) != 0;
 	}
 
 	public static boolean IsMateScore(int score) {
@@ -240,5 +618,26 @@ public class Search {
 		public int eval;
 		public boolean isBook;
 		public int numPositionsEvaluated;
+		public long numNodes; // summed over all search threads
+		public long timeMillis;
+		public String principalVariation;
+		public int hashfull; // permille of the transposition table used by this search
+		public long numEvalCacheLookups; // summed over all search threads
+		public long numEvalCacheHits;
+		public long numPawnTableLookups; // summed over all search threads
+		public long numPawnTableHits;
+		// Aspiration window failures, summed over all search threads. The nodes spent in the
+		// failed windows are the overhead of searching the iteration again.
+		public int numAspirationFailLows;
+		public int numAspirationFailHighs;
+		public long numAspirationResearchNodes;
+
+		public double EvalCacheHitRate() {
+			return (numEvalCacheLookups == 0) ? 0 : (double) numEvalCacheHits / numEvalCacheLookups;
+		}
+
+		public double PawnTableHitRate() {
+			return (numPawnTableLookups == 0) ? 0 : (double) numPawnTableHits / numPawnTableLookups;
+		}
 	}
 }
\ No newline at end of file
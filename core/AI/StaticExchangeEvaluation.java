@@ -0,0 +1,120 @@
+package core.ai;
+
+import core.*;
+import core.data.*;
+
+/**
+ * Static exchange evaluation: the material balance after all captures on the
+ * target square of a move, where each side captures with its least valuable
+ * piece and may stop capturing when continuing would lose material. Pins and
+ * checks are ignored.
+ * src: https://www.chessprogramming.org/SEE_-_The_Swap_Algorithm
+ */
+public class StaticExchangeEvaluation {
+
+    static final int KING_VAL = 20000; // the king can only capture last, if nothing can recapture
+    static final int MAX_EXCHANGE_LENGTH = 32;
+
+    // Pieces in the order in which they are used for capturing
+    static final int[] capturingPieceTypes = { Piece.Pawn, Piece.Knight, Piece.Bishop, Piece.Rook, Piece.Queen, Piece.King };
+
+    // Result of the exchange for the side making each capture in the sequence, reused between calls
+    final int[] gain = new int[MAX_EXCHANGE_LENGTH];
+
+    // Whether the capture loses material. Taking a piece that is at least as valuable as
+    // the capturing one never does, so the exchange only needs to be evaluated otherwise.
+    public boolean LosesMaterial(Board board, int move) {
+        int attackerValue = GetPieceValue(Piece.getPieceType(board.Square[Move.getStartSquare(move)]));
+        int victimValue = (Move.getMoveFlag(move) == Move.Flag.EnPassantCapture) ? Evaluation.PAWN_VAL
+                : GetPieceValue(Piece.getPieceType(board.Square[Move.getTargetSquare(move)]));
+        if (victimValue >= attackerValue) {
+            return false;
+        }
+        return Evaluate(board, move) < 0;
+    }
+
+    // Material the side to move gains (or loses, if negative) by making the move and
+    // then continuing the exchange on the target square as well as possible
+    public int Evaluate(Board board, int move) {
+        int startSquare = Move.getStartSquare(move);
+        int targetSquare = Move.getTargetSquare(move);
+        int moveFlag = Move.getMoveFlag(move);
+
+        long occupied = board.allPiecesBitboard;
+        int attackerValue = GetPieceValue(Piece.getPieceType(board.Square[startSquare]));
+
+        if (moveFlag == Move.Flag.EnPassantCapture) {
+            int epCapturedPawnSquare = targetSquare + ((board.whiteToMove) ? -8 : 8);
+            occupied ^= 1l << epCapturedPawnSquare;
+            gain[0] = Evaluation.PAWN_VAL;
+        } else {
+            gain[0] = GetPieceValue(Piece.getPieceType(board.Square[targetSquare]));
+        }
+        if (moveFlag == Move.Flag.PromoteToQueen) {
+            gain[0] += Evaluation.QUEEN_VAL - Evaluation.PAWN_VAL;
+            attackerValue = Evaluation.QUEEN_VAL;
+        }
+
+        occupied ^= 1l << startSquare;
+        long attackers = GetAttackers(board, targetSquare, occupied) & occupied;
+        int colourIndex = 1 - board.colourToMoveIndex;
+
+        int depth = 0;
+        while (depth < MAX_EXCHANGE_LENGTH - 1) {
+            long colourAttackers = attackers & board.colourBitboards[colourIndex];
+            if (colourAttackers == 0) {
+                break;
+            }
+            depth++;
+            // Value for the side to capture now if the piece last moved to the target square is captured
+            gain[depth] = attackerValue - gain[depth - 1];
+            // Neither side can improve on their result by continuing, so the exchange ends here
+            if (Math.max(-gain[depth - 1], gain[depth]) < 0) {
+                break;
+            }
+
+            // Capture with the least valuable attacker. Removing it from the occupied squares
+            // may reveal a slider behind it, so the attackers are updated afterwards.
+            for (int pieceType : capturingPieceTypes) {
+                long pieces = colourAttackers & board.GetPieceBitboard(pieceType, colourIndex);
+                if (pieces != 0) {
+                    occupied ^= pieces & -pieces;
+                    attackerValue = GetPieceValue(pieceType);
+                    break;
+                }
+            }
+            attackers = GetAttackers(board, targetSquare, occupied) & occupied;
+            colourIndex = 1 - colourIndex;
+        }
+
+        // Go back through the exchange, letting each side choose to stop capturing
+        while (depth > 0) {
+            gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+            depth--;
+        }
+        return gain[0];
+    }
+
+    // All pieces (of both colours) that attack the square, given the occupied squares
+    static long GetAttackers(Board board, int square, long occupied) {
+        long queens = board.GetPieceBitboard(Piece.Queen, Board.WHITE_INDEX) | board.GetPieceBitboard(Piece.Queen, Board.BLACK_INDEX);
+        long orthogonalSliders = board.GetPieceBitboard(Piece.Rook, Board.WHITE_INDEX) | board.GetPieceBitboard(Piece.Rook, Board.BLACK_INDEX) | queens;
+        long diagonalSliders = board.GetPieceBitboard(Piece.Bishop, Board.WHITE_INDEX) | board.GetPieceBitboard(Piece.Bishop, Board.BLACK_INDEX) | queens;
+        long knights = board.GetPieceBitboard(Piece.Knight, Board.WHITE_INDEX) | board.GetPieceBitboard(Piece.Knight, Board.BLACK_INDEX);
+        long kings = board.GetPieceBitboard(Piece.King, Board.WHITE_INDEX) | board.GetPieceBitboard(Piece.King, Board.BLACK_INDEX);
+
+        // A pawn attacks the square if a pawn of the other colour on the square would attack the pawn
+        long pawnAttackers = (PrecomputedMoveData.pawnAttackBitboards[square][Board.BLACK_INDEX] & board.GetPieceBitboard(Piece.Pawn, Board.WHITE_INDEX))
+                | (PrecomputedMoveData.pawnAttackBitboards[square][Board.WHITE_INDEX] & board.GetPieceBitboard(Piece.Pawn, Board.BLACK_INDEX));
+
+        return pawnAttackers
+                | (PrecomputedMoveData.knightAttackBitboards[square] & knights)
+                | (PrecomputedMoveData.kingAttackBitboards[square] & kings)
+                | (Magic.GetRookAttacks(square, occupied) & orthogonalSliders)
+                | (Magic.GetBishopAttacks(square, occupied) & diagonalSliders);
+    }
+
+    static int GetPieceValue(int pieceType) {
+        return (pieceType == Piece.King) ? KING_VAL : MoveOrdering.GetPieceValue(pieceType);
+    }
+}
@@ -0,0 +1,65 @@
+package core.ai;
+
+/**
+ * Decides how long a search may take, from either a fixed time per move or the
+ * state of the clock. The soft limit is the time after which iterative deepening
+ * won't start another iteration, the hard limit is the time at which a running
+ * iteration is aborted.
+ */
+public class TimeManager {
+
+    // Number of moves the remaining time is spread over if the time control doesn't say
+    static final int DEFAULT_MOVES_TO_GO = 30;
+    // Time kept in reserve for everything around the search (e.g. sending the move)
+    static final long MOVE_OVERHEAD_MILLIS = 30;
+    // How far a single move may overrun its share of the clock
+    static final int HARD_LIMIT_FACTOR = 4;
+    // Each iteration of iterative deepening is expected to take at least this many times as long as the previous one
+    static final int ITERATION_GROWTH_FACTOR = 2;
+
+    long startTime;
+    long softLimitMillis;
+    long hardLimitMillis;
+
+    // Search until stopped from outside
+    public void StartInfinite() {
+        startTime = System.nanoTime();
+        softLimitMillis = Long.MAX_VALUE;
+        hardLimitMillis = Long.MAX_VALUE;
+    }
+
+    // Search for (at most) the given time
+    public void StartFixed(long moveTimeMillis) {
+        startTime = System.nanoTime();
+        softLimitMillis = hardLimitMillis = Math.max(1, moveTimeMillis - MOVE_OVERHEAD_MILLIS);
+    }
+
+    // Search for a share of the remaining clock time. movesToGo is the number of moves
+    // until the next time control, or 0 if the remaining time has to last for the rest of the game.
+    public void Start(long remainingMillis, long incrementMillis, int movesToGo) {
+        startTime = System.nanoTime();
+        long availableMillis = Math.max(1, remainingMillis - MOVE_OVERHEAD_MILLIS);
+        int numMoves = (movesToGo > 0) ? Math.min(movesToGo, DEFAULT_MOVES_TO_GO) : DEFAULT_MOVES_TO_GO;
+
+        long targetMillis = availableMillis / numMoves + incrementMillis * 3 / 4;
+        // Never use more than half of the clock on one move, unless it's the last one before the time control
+        long maxMillis = (numMoves == 1) ? availableMillis : availableMillis / 2;
+        hardLimitMillis = Math.max(1, Math.min(targetMillis * HARD_LIMIT_FACTOR, maxMillis));
+        softLimitMillis = Math.max(1, Math.min(targetMillis, hardLimitMillis));
+    }
+
+    public long ElapsedMillis() {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    public boolean HardLimitReached() {
+        return ElapsedMillis() >= hardLimitMillis;
+    }
+
+    // Whether another iteration should be started, given how long the last one took.
+    // There's no point in starting an iteration that would be aborted before it completes.
+    public boolean CanStartIteration(long lastIterationMillis) {
+        long elapsed = ElapsedMillis();
+        return elapsed < softLimitMillis && elapsed + lastIterationMillis * ITERATION_GROWTH_FACTOR < hardLimitMillis;
+    }
+}
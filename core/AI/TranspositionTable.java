@@ -1,6 +1,16 @@
 package core.ai;
 
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
 import core.*;
+import core.util.ZobristHashing;
 
 // src: https://web.archive.org/web/20071031100051/http://www.brucemo.com/compchess/programming/hashing.htm
 public class TranspositionTable {
@@ -24,58 +34,211 @@ public class TranspositionTable {
     // that the evaluation is, at most, equal to this value.
     public static final int UpperBound = 2;
 
-    public Entry[] entries;
-    public final long size;
-    public boolean enabled = true;
-    Board board;
+    // Each entry takes two longs: the key xor-ed with the data, followed by the data.
+    // Entries are written without locking, so a thread may read a half written entry.
+    // Recomputing the key from both words and comparing it to the position's key
+    // rejects those (as well as empty slots), which makes the table safe to share
+    // between search threads.
+    // Data layout:
+    // Bits 0-15 store the move value
+    // Bits 16-47 store the score
+    // Bits 48-55 store the depth
+    // Bits 56-57 store the bound type
+    // Bits 58-63 store the age (generation of the search that stored the entry, never 0)
+    static final int ENTRY_LONGS = 2;
+    static final int BUCKET_SIZE = 4; // entries per bucket (4 * 16 bytes = one cache line)
+    static final int BUCKET_LONGS = BUCKET_SIZE * ENTRY_LONGS;
+    static final int AGE_MASK = 0b111111;
+    // Generations run from 1 to 63 (0 is left for empty entries), so ages are compared modulo 63
+    static final int NUM_GENERATIONS = AGE_MASK;
+    // How many plies of depth one search generation of age is worth when choosing the entry to replace
+    static final int AGE_REPLACE_WEIGHT = 8;
+    static final int HASHFULL_SAMPLE_SIZE = 1000;
 
-    public TranspositionTable(Board board, int size) {
-        this.board = board;
-        this.size = (long) size;
+    // Snapshot files start with a header of four longs: magic number and format version,
+    // Zobrist seed and generation, checksum of the Zobrist keys, and the number of longs
+    // in the table. The table follows as it is in memory (little endian).
+    static final int SNAPSHOT_MAGIC = 0x43545454; // "CTTT"
+    static final int SNAPSHOT_VERSION = 1;
+    static final int SNAPSHOT_HEADER_BYTES = 4 * 8;
+    static final long SNAPSHOT_CHUNK_BYTES = 1l << 27; // bytes mapped at once (a mapping can't exceed 2GB)
+
+    final long[] table;
+    final int bucketMask;
+    public final long numEntries;
+    public boolean enabled = true;
+    int generation = 1;
 
-        entries = new Entry[size];
+    public TranspositionTable(int sizeInMB) {
+        long numBuckets = Long.highestOneBit(Math.max(1, ((long) sizeInMB << 20) / (BUCKET_LONGS * 8)));
+        numBuckets = Math.min(numBuckets, 1 << 26);
+        table = new long[(int) numBuckets * BUCKET_LONGS];
+        bucketMask = (int) numBuckets - 1;
+        numEntries = numBuckets * BUCKET_SIZE;
     }
 
     public void Clear() {
-        for (int i = 0; i < entries.length; i++) {
-            entries[i] = new Entry();
+        Arrays.fill(table, 0);
+    }
+
+    // Entries stored from now on belong to a new search, making older entries
+    // preferred candidates for replacement
+    public void NewSearch() {
+        generation = generation % NUM_GENERATIONS + 1;
+    }
+
+    // Permille of the entries that were stored by the current search, estimated from the
+    // first entries of the table (as reported by the UCI hashfull info). Entries of older
+    // searches aren't counted, since they are replaced first.
+    public int Hashfull() {
+        int numSampled = (int) Math.min(HASHFULL_SAMPLE_SIZE, numEntries);
+        int numUsed = 0;
+        for (int i = 0; i < numSampled; i++) {
+            long data = table[i * ENTRY_LONGS + 1];
+            if (data != 0 && GetAge(data) == generation) {
+                numUsed++;
+            }
         }
+        return numUsed * 1000 / numSampled;
     }
 
-    public long Index() {
-        long mod = board.ZobristKey % size;
-        return mod < 0 ? mod + size : mod;
+    // Writes the whole table to the file, replacing its contents. Entries that other threads
+    // write while the snapshot is taken may end up half written in the file, but those are
+    // rejected like in memory when they're looked up after loading.
+    public void Save(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, SNAPSHOT_HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION);
+            header.putInt(ZobristHashing.SEED).putInt(generation);
+            header.putLong(ZobristHashing.keysChecksum);
+            header.putLong(table.length);
+            header.force();
+
+            for (int i = 0; i < table.length; i += SNAPSHOT_CHUNK_BYTES / 8) {
+                int numLongs = (int) Math.min(SNAPSHOT_CHUNK_BYTES / 8, table.length - i);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, SNAPSHOT_HEADER_BYTES + i * 8l,
+                        numLongs * 8l);
+                chunk.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(table, i, numLongs);
+                chunk.force();
+            }
+        }
     }
 
-    public Move GetStoredMove() {
-        return entries[(int) Index()].move;
+    // Reads a table written by Save into this one, replacing its contents. Returns false (and
+    // leaves the table unchanged) if the file has another format version, or if its keys were
+    // calculated with other Zobrist numbers, since its entries would never be found then.
+    // A table of another size is read entry by entry, keeping the deepest ones that fit.
+    public boolean Load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < SNAPSHOT_HEADER_BYTES) {
+                return false;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION
+                    || header.getInt() != ZobristHashing.SEED) {
+                return false;
+            }
+            int savedGeneration = header.getInt();
+            long savedChecksum = header.getLong();
+            long savedLength = header.getLong();
+            if (savedGeneration < 1 || savedGeneration > NUM_GENERATIONS
+                    || savedChecksum != ZobristHashing.keysChecksum || savedLength % BUCKET_LONGS != 0
+                    || channel.size() != SNAPSHOT_HEADER_BYTES + savedLength * 8) {
+                return false;
+            }
+
+            Clear();
+            for (long i = 0; i < savedLength; i += SNAPSHOT_CHUNK_BYTES / 8) {
+                int numLongs = (int) Math.min(SNAPSHOT_CHUNK_BYTES / 8, savedLength - i);
+                LongBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, SNAPSHOT_HEADER_BYTES + i * 8, numLongs * 8l)
+                        .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                if (savedLength == table.length) {
+                    chunk.get(table, (int) i, numLongs);
+                } else {
+                    for (int j = 0; j < numLongs; j += ENTRY_LONGS) {
+                        long data = chunk.get(j + 1);
+                        if (data != 0) {
+                            StoreEntry(chunk.get(j) ^ data, data);
+                        }
+                    }
+                }
+            }
+            generation = savedGeneration;
+            return true;
+        }
+    }
+
+    // Stores an entry read from a table of another size, unless its bucket only holds deeper entries
+    void StoreEntry(long key, long data) {
+        int bucket = BucketIndex(key);
+        int replaceIndex = bucket;
+        for (int i = bucket; i < bucket + BUCKET_LONGS; i += ENTRY_LONGS) {
+            if (GetDepth(table[i + 1]) < GetDepth(table[replaceIndex + 1])) {
+                replaceIndex = i;
+            }
+        }
+        if (table[replaceIndex + 1] == 0 || GetDepth(table[replaceIndex + 1]) < GetDepth(data)) {
+            table[replaceIndex] = key ^ data;
+            table[replaceIndex + 1] = data;
+        }
+    }
+
+    int BucketIndex(long key) {
+        return ((int) key & bucketMask) * BUCKET_LONGS;
     }
 
-    public int LookupEvaluation(int depth, int plyFromRoot, int alpha, int beta) {
+    // Returns the data word stored for the given position, or 0 if there is none
+    long Probe(long key) {
+        int bucket = BucketIndex(key);
+        for (int i = bucket; i < bucket + BUCKET_LONGS; i += ENTRY_LONGS) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key && data != 0) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    // Returns the value of the move stored for the given position, or 0 (the invalid move) if there is none
+    public short GetStoredMoveValue(long key) {
+        return (short) Probe(key);
+    }
+
+    // Returns the move stored for the given position, or null if there is none
+    public Move GetStoredMove(long key) {
+        long data = Probe(key);
+        return data == 0 ? null : new Move((short) data);
+    }
+
+    public int LookupEvaluation(long key, int depth, int plyFromRoot, int alpha, int beta) {
         if (!enabled) {
             return lookupFailed;
         }
-        Entry entry = entries[(int) Index()];
+        long data = Probe(key);
 
-        if (entry.key == board.ZobristKey) {
+        if (data != 0) {
             // Only use stored evaluation if it has been searched to at least the same depth
             // as would be searched now
-            if (entry.depth >= depth) {
-                int correctedScore = CorrectRetrievedMateScore(entry.value, plyFromRoot);
+            if (GetDepth(data) >= depth) {
+                int correctedScore = CorrectRetrievedMateScore(GetScore(data), plyFromRoot);
+                int nodeType = GetNodeType(data);
                 // We have stored the exact evaluation for this position, so return it
-                if (entry.nodeType == Exact) {
+                if (nodeType == Exact) {
                     return correctedScore;
                 }
                 // We have stored the upper bound of the eval for this position. If it's less
                 // than alpha then we don't need to
                 // search the moves in this position as they won't interest us; otherwise we
                 // will have to search to find the exact value
-                if (entry.nodeType == UpperBound && correctedScore <= alpha) {
+                if (nodeType == UpperBound && correctedScore <= alpha) {
                     return correctedScore;
                 }
                 // We have stored the lower bound of the eval for this position. Only return if
                 // it causes a beta cut-off.
-                if (entry.nodeType == LowerBound && correctedScore >= beta) {
+                if (nodeType == LowerBound && correctedScore >= beta) {
                     return correctedScore;
                 }
             }
@@ -83,13 +246,59 @@ public class TranspositionTable {
         return lookupFailed;
     }
 
-    public void StoreEvaluation(int depth, int numPlySearched, int eval, int evalType, Move move) {
+    public void StoreEvaluation(long key, int depth, int numPlySearched, int eval, int evalType, int move) {
         if (!enabled) {
             return;
         }
-        Entry entry = new Entry(board.ZobristKey, CorrectMateScoreForStorage(eval, numPlySearched), (byte) depth,
-                (byte) evalType, move);
-        entries[(int) Index()] = entry;
+        int bucket = BucketIndex(key);
+        int replaceIndex = bucket;
+        int lowestReplaceValue = Integer.MAX_VALUE;
+        short moveValue = (short) move;
+
+        for (int i = bucket; i < bucket + BUCKET_LONGS; i += ENTRY_LONGS) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == key) {
+                // Same position: always overwrite, but keep the old move if there is no new one
+                if (moveValue == 0) {
+                    moveValue = (short) data;
+                }
+                replaceIndex = i;
+                break;
+            }
+            // Otherwise replace an empty entry, or the shallowest one, counting entries from
+            // older searches as shallower
+            int age = (generation - GetAge(data) + NUM_GENERATIONS) % NUM_GENERATIONS;
+            int replaceValue = (data == 0) ? Integer.MIN_VALUE : GetDepth(data) - age * AGE_REPLACE_WEIGHT;
+            if (replaceValue < lowestReplaceValue) {
+                lowestReplaceValue = replaceValue;
+                replaceIndex = i;
+            }
+        }
+
+        long data = PackEntry(CorrectMateScoreForStorage(eval, numPlySearched), depth, evalType, moveValue, generation);
+        table[replaceIndex] = key ^ data;
+        table[replaceIndex + 1] = data;
+    }
+
+    static long PackEntry(int score, int depth, int nodeType, short moveValue, int age) {
+        return (moveValue & 0xFFFFL) | (score & 0xFFFFFFFFL) << 16 | (long) (depth & 0xFF) << 48
+                | (long) nodeType << 56 | (long) age << 58;
+    }
+
+    static int GetScore(long data) {
+        return (int) (data >>> 16);
+    }
+
+    static int GetDepth(long data) {
+        return (int) (data >>> 48) & 0xFF;
+    }
+
+    static int GetNodeType(long data) {
+        return (int) (data >>> 56) & 0b11;
+    }
+
+    static int GetAge(long data) {
+        return (int) (data >>> 58);
     }
 
     int CorrectMateScoreForStorage(int score, int numPlySearched) {
@@ -107,32 +316,4 @@ public class TranspositionTable {
         }
         return score;
     }
-
-    public static class Entry {
-        public final long key;
-        public final int value;
-        public final Move move;
-        public final byte depth;
-        public final byte nodeType;
-
-        public Entry() {
-            key = 0;
-            value = 0;
-            move = null;
-            depth = 0;
-            nodeType = 0;
-        }
-
-        public Entry(long key, int value, byte depth, byte nodeType, Move move) {
-            this.key = key;
-            this.value = value;
-            this.depth = depth; // depth is how many ply were searched ahead from this position
-            this.nodeType = nodeType;
-            this.move = move;
-        }
-        
-        public static int GetSize() {
-            return 8 + 4 + 4 + 1 + 1;
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import core.ai.*;
+
+/**
+ * Analyses the positions of a FEN or EPD file (one position per line) with a pool
+ * of independent searches, each owning its board and transposition table. The best
+ * move, score, depth and node count of each position are written to the output file
+ * as soon as its search is done, so the lines may be out of order.
+ *
+ * Usage: BatchAnalyser inputFile outputFile [-threads n] [-depth d] [-movetime ms] [-hash mbPerThread]
+ */
+public class BatchAnalyser {
+
+    static final int QUEUED_POSITIONS_PER_WORKER = 4;
+    static final Position END_OF_INPUT = new Position(-1, null, null);
+
+    int numWorkers = Runtime.getRuntime().availableProcessors();
+    int searchDepth; // fixed depth searches if set, timed searches otherwise
+    int searchTimeMillis = 1000;
+    int hashSizeMB = 16; // per worker
+
+    // Positions read from the input that no worker has taken yet. The queue is bounded, so
+    // the reader can't get far ahead of the workers and memory doesn't depend on the file size.
+    BlockingQueue<Position> positions;
+    PrintWriter output;
+    int numAnalysed;
+
+    static class Position {
+        final int index; // line number in the input file
+        final String fen;
+        final String id; // name given by the EPD id operation, or the fen
+
+        Position(int index, String fen, String id) {
+            this.index = index;
+            this.fen = fen;
+            this.id = id;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println(
+                    "Usage: BatchAnalyser inputFile outputFile [-threads n] [-depth d] [-movetime ms] [-hash mbPerThread]");
+            return;
+        }
+        BatchAnalyser analyser = new BatchAnalyser();
+        for (int i = 2; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "-threads":
+                    analyser.numWorkers = Math.max(1, Integer.parseInt(args[i + 1]));
+                    break;
+                case "-depth":
+                    analyser.searchDepth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-movetime":
+                    analyser.searchTimeMillis = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-hash":
+                    analyser.hashSizeMB = Math.max(1, Integer.parseInt(args[i + 1]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        long startTime = System.currentTimeMillis();
+        try (BufferedReader input = Files.newBufferedReader(Paths.get(args[0]));
+                PrintWriter output = new PrintWriter(Files.newBufferedWriter(Paths.get(args[1])))) {
+            analyser.Run(input, output);
+        }
+        System.out.println("Analysed " + analyser.numAnalysed + " positions in "
+                + (System.currentTimeMillis() - startTime) + " ms, results written to " + args[1]);
+    }
+
+    public void Run(BufferedReader input, PrintWriter output) throws IOException, InterruptedException {
+        this.output = output;
+        positions = new ArrayBlockingQueue<Position>(numWorkers * QUEUED_POSITIONS_PER_WORKER);
+        output.println("index\tposition\tbestmove\tscore\tdepth\tnodes\ttime");
+
+        Thread[] workerThreads = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; i++) {
+            workerThreads[i] = new Thread(new Worker()::Run, "analyser-" + i);
+            workerThreads[i].start();
+        }
+
+        String line;
+        int lineNumber = 0;
+        while ((line = input.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            positions.put(ParseLine(line, lineNumber));
+        }
+        for (int i = 0; i < numWorkers; i++) {
+            positions.put(END_OF_INPUT);
+        }
+        for (Thread workerThread : workerThreads) {
+            workerThread.join();
+        }
+        output.flush();
+    }
+
+    // A fen line holds the piece placement, side to move, castling rights, en passant square and
+    // the two move counters. An EPD line holds the first four of them, followed by operations
+    // (e.g. bm Nf3; id "position 1";) of which only the id is used.
+    static Position ParseLine(String line, int index) {
+        String[] fields = line.split("\\s+");
+        int numFenFields = Math.min(4, fields.length);
+        if (fields.length >= 6 && IsNumber(fields[4]) && IsNumber(fields[5])) {
+            numFenFields = 6;
+        }
+        String fen = String.join(" ", Arrays.copyOf(fields, numFenFields));
+
+        String id = fen;
+        int idIndex = line.indexOf(" id ");
+        if (idIndex >= 0) {
+            int idEnd = line.indexOf(';', idIndex);
+            id = line.substring(idIndex + 4, (idEnd < 0) ? line.length() : idEnd).trim().replace("\"", "");
+        }
+        return new Position(index, fen, id);
+    }
+
+    static boolean IsNumber(String field) {
+        return !field.isEmpty() && field.chars().allMatch(Character::isDigit);
+    }
+
+    synchronized void WriteResult(Position position, String result) {
+        output.println(position.index + "\t" + position.id + "\t" + result);
+        output.flush();
+        numAnalysed++;
+    }
+
+    class Worker {
+        final Board board;
+        final MoveGenerator moveGenerator;
+        final Search search;
+
+        Worker() {
+            AISettings settings = new AISettings();
+            settings.useThreading = false;
+            settings.transpositionTableSizeMB = hashSizeMB;
+            settings.clearTTEachMove = true; // the positions are unrelated
+            settings.useFixedDepthSearch = searchDepth > 0;
+            settings.depth = searchDepth;
+            settings.searchTimeMillis = searchTimeMillis;
+            board = new Board();
+            moveGenerator = new MoveGenerator();
+            search = new Search(board, null, settings);
+        }
+
+        void Run() {
+            try {
+                Position position;
+                while ((position = positions.take()) != END_OF_INPUT) {
+                    WriteResult(position, Analyse(position));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String Analyse(Position position) {
+            try {
+                board.LoadPosition(position.fen);
+            } catch (RuntimeException e) {
+                return "invalid position: " + position.fen;
+            }
+            if (moveGenerator.generateMoves(board).size() == 0) {
+                return (moveGenerator.isInCheck() ? "checkmate" : "stalemate");
+            }
+
+            long startTime = System.currentTimeMillis();
+            search.StartSearch();
+            long timeMillis = System.currentTimeMillis() - startTime;
+            Search.SearchDiagnostics diagnostics = search.searchDiagnostics;
+            return search.GetSearchResult() + "\t" + UciEngine.FormatScore(diagnostics.eval) + "\t"
+                    + diagnostics.lastCompletedDepth + "\t" + diagnostics.numNodes + "\t" + timeMillis;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package core;
 
-import java.util.Stack;
+import java.util.Arrays;
 
+import core.ai.Evaluation;
+import core.data.PieceSquareTable;
 import core.util.*;
 
 public class Board {
@@ -22,14 +24,21 @@ public class Board {
     // Bits 4-7 store file of ep square (starting at 1, so 0 = no ep square)
     // Bits 8-13 captured piece
     // Bits 14-... fifty mover counter
-    Stack<Integer> gameStateHistory;
-    public Integer currentGameState;
+    public int currentGameState;
 
     public int plyCount; // Total plies played in game
     public int fiftyMoveCounter; // Num ply since last pawn move or capture
 
-    public Long ZobristKey;
-    public Stack<Long> RepetitionPositionHistory;
+    public long ZobristKey;
+    public long PawnKey; // zobrist key of the pawns only, for the pawn hash table
+
+    // Game state and zobrist key of every position from the loaded one up to the current
+    // one, including moves made in the search. The arrays only grow (rarely) when a game
+    // gets longer than they are, so making and unmaking moves doesn't allocate.
+    static final int INITIAL_HISTORY_CAPACITY = 1024;
+    int[] gameStateHistory;
+    long[] zobristKeyHistory;
+    int historyIndex; // index of the current position in the histories
 
     public int[] KingSquare; // index of square of white and black king
 
@@ -41,44 +50,92 @@ public class Board {
 
     PieceList[] allPieceLists;
 
-    static final Integer WHITE_CASTLE_KINGSIDE_MASK = 0b1111111111111110;
-    static final Integer WHITE_CASTLE_QUEENSIDE_MASK = 0b1111111111111101;
-    static final Integer BLACK_CASTLE_KINGSIDE_MASK = 0b1111111111111011;
-    static final Integer BLACK_CASTLE_QUEENSIDE_MASK = 0b1111111111110111;
+    // Bitboards of the squares occupied by each piece type, indexed like allPieceLists
+    // (colourIndex * 8 + pieceType). Kept in sync with Square by MakeMove and UnmakeMove.
+    public long[] pieceBitboards;
+    public long[] colourBitboards; // all pieces of white and black
+    public long allPiecesBitboard;
+
+    // Evaluation terms per colour index, kept in sync with the pieces like the bitboards
+    public int[] material;
+    public int[] nonPawnMaterial;
+    public int[] pstMiddlegame; // sum of the piece-square table values with the middlegame king table
+    public int[] pstEndgame; // sum of the piece-square table values with the endgame king table
 
-    static final Integer WHITE_CASTLE_MASK = WHITE_CASTLE_KINGSIDE_MASK & WHITE_CASTLE_QUEENSIDE_MASK;
-    static final Integer BLACK_CASTLE_MASK = BLACK_CASTLE_KINGSIDE_MASK & BLACK_CASTLE_QUEENSIDE_MASK;
+    static final int WHITE_CASTLE_KINGSIDE_MASK = 0b1111111111111110;
+    static final int WHITE_CASTLE_QUEENSIDE_MASK = 0b1111111111111101;
+    static final int BLACK_CASTLE_KINGSIDE_MASK = 0b1111111111111011;
+    static final int BLACK_CASTLE_QUEENSIDE_MASK = 0b1111111111110111;
+
+    static final int WHITE_CASTLE_MASK = WHITE_CASTLE_KINGSIDE_MASK & WHITE_CASTLE_QUEENSIDE_MASK;
+    static final int BLACK_CASTLE_MASK = BLACK_CASTLE_KINGSIDE_MASK & BLACK_CASTLE_QUEENSIDE_MASK;
 
     public Board() {
         Initialize();
     }
 
+    // Creates a copy of the other board, e.g. for a search running on another thread
+    public Board(Board other) {
+        Initialize();
+        other.CopyInto(this);
+    }
+
     PieceList GetPieceList(int pieceType, int colourIndex) {
         return allPieceLists[colourIndex * 8 + pieceType];
     }
 
+    public long GetPieceBitboard(int pieceType, int colourIndex) {
+        return pieceBitboards[colourIndex * 8 + pieceType];
+    }
+
+    // Adds the piece to the bitboards if the square is empty there, or removes it otherwise.
+    // The evaluation terms are updated accordingly.
+    void TogglePieceBitboards(int pieceType, int colourIndex, int square) {
+        long squareBit = 1l << square;
+        pieceBitboards[colourIndex * 8 + pieceType] ^= squareBit;
+        colourBitboards[colourIndex] ^= squareBit;
+
+        int sign = ((pieceBitboards[colourIndex * 8 + pieceType] & squareBit) != 0) ? 1 : -1;
+        int piece = pieceType | ((colourIndex == WHITE_INDEX) ? Piece.White : Piece.Black);
+        int value = Evaluation.pieceValues[pieceType];
+        material[colourIndex] += sign * value;
+        if (pieceType != Piece.Pawn) {
+            nonPawnMaterial[colourIndex] += sign * value;
+        }
+        pstMiddlegame[colourIndex] += sign * PieceSquareTable.middlegameValues[piece][square];
+        pstEndgame[colourIndex] += sign * PieceSquareTable.endgameValues[piece][square];
+        if (pieceType == Piece.Pawn) {
+            PawnKey ^= ZobristHashing.piecesArray[Piece.Pawn][colourIndex][square];
+        }
+    }
+
     public void MakeMove(Move move) {
         MakeMove(move, false);
     }
 
-    // inSearch parameter controls whether this move should be recorded in the
-    // game history (for detecting three-fold repetition)
+    // Moves made in the search are recorded in the history like game moves, so that
+    // repetitions within the search are detected too. inSearch has no effect anymore.
     public void MakeMove(Move move, boolean inSearch) {
-        Integer oldEnPassantFile = (currentGameState >> 4) & 15;
-        Integer originalCastleState = currentGameState & 15;
-        Integer newCastleState = originalCastleState;
+        MakeMove(move.moveValue, inSearch);
+    }
+
+    // Makes the move with the given move value (see Move), without requiring a Move object
+    public void MakeMove(int move, boolean inSearch) {
+        int oldEnPassantFile = (currentGameState >> 4) & 15;
+        int originalCastleState = currentGameState & 15;
+        int newCastleState = originalCastleState;
         currentGameState = 0;
 
         int opponentColourIndex = 1 - colourToMoveIndex;
-        int moveFrom = move.getStartSquare();
-        int moveTo = move.getTargetSquare();
+        int moveFrom = Move.getStartSquare(move);
+        int moveTo = Move.getTargetSquare(move);
 
         int capturedPieceType = Piece.getPieceType(Square[moveTo]);
         int movePiece = Square[moveFrom];
         int movePieceType = Piece.getPieceType(movePiece);
 
-        int moveFlag = move.getMoveFlag();
-        boolean isPromotion = move.isPromotion();
+        int moveFlag = Move.getMoveFlag(move);
+        boolean isPromotion = Move.isPromotion(move);
         boolean isEnPassant = moveFlag == Move.Flag.EnPassantCapture;
 
         // Handle captures
@@ -86,6 +143,7 @@ public class Board {
         if (capturedPieceType != 0 && !isEnPassant) {
             ZobristKey ^= ZobristHashing.piecesArray[capturedPieceType][opponentColourIndex][moveTo];
             GetPieceList(capturedPieceType, opponentColourIndex).removePieceAtSquare(moveTo);
+            TogglePieceBitboards(capturedPieceType, opponentColourIndex, moveTo);
         }
 
         // Move pieces in piece lists
@@ -130,6 +188,7 @@ public class Board {
                     currentGameState |= Square[epPawnSquare] << 8; // add pawn as capture type
                     Square[epPawnSquare] = 0; // clear ep capture square
                     pawns[opponentColourIndex].removePieceAtSquare(epPawnSquare);
+                    TogglePieceBitboards(Piece.Pawn, opponentColourIndex, epPawnSquare);
                     ZobristKey ^= ZobristHashing.piecesArray[Piece.Pawn][opponentColourIndex][epPawnSquare];
                     break;
                 case Move.Flag.Castling:
@@ -141,6 +200,8 @@ public class Board {
                     Square[castlingRookToIndex] = Piece.Rook | colourToMove;
 
                     rooks[colourToMoveIndex].movePiece(castlingRookFromIndex, castlingRookToIndex);
+                    TogglePieceBitboards(Piece.Rook, colourToMoveIndex, castlingRookFromIndex);
+                    TogglePieceBitboards(Piece.Rook, colourToMoveIndex, castlingRookToIndex);
                     ZobristKey ^= ZobristHashing.piecesArray[Piece.Rook][colourToMoveIndex][castlingRookFromIndex];
                     ZobristKey ^= ZobristHashing.piecesArray[Piece.Rook][colourToMoveIndex][castlingRookToIndex];
                     break;
@@ -150,6 +211,9 @@ public class Board {
         // Update the board representation:
         Square[moveTo] = pieceOnTargetSquare;
         Square[moveFrom] = 0;
+        TogglePieceBitboards(movePieceType, colourToMoveIndex, moveFrom);
+        TogglePieceBitboards(Piece.getPieceType(pieceOnTargetSquare), colourToMoveIndex, moveTo);
+        allPiecesBitboard = colourBitboards[WHITE_INDEX] | colourBitboards[BLACK_INDEX];
 
         // Pawn has moved two forwards, mark file with en-passant flag
         if (moveFlag == Move.Flag.PawnTwoForward) {
@@ -184,9 +248,11 @@ public class Board {
             ZobristKey ^= ZobristHashing.castlingRights[originalCastleState]; // remove old castling rights state
             ZobristKey ^= ZobristHashing.castlingRights[newCastleState]; // add new castling rights state
         }
+        // Pawn moves and captures are irreversible, so no earlier position can be repeated after them
+        fiftyMoveCounter = (movePieceType == Piece.Pawn || capturedPieceType != Piece.None) ? 0 : fiftyMoveCounter + 1;
         currentGameState |= newCastleState;
-        currentGameState |= (Integer) fiftyMoveCounter << 14;
-        gameStateHistory.push(currentGameState);
+        currentGameState |= fiftyMoveCounter << 14;
+        PushHistory();
 
         // Change side to move
         whiteToMove = !whiteToMove;
@@ -194,24 +260,90 @@ public class Board {
         opponentColour = (whiteToMove) ? Piece.Black : Piece.White;
         colourToMoveIndex = 1 - colourToMoveIndex;
         plyCount++;
-        fiftyMoveCounter++;
-
-        if (!inSearch) {
-            if (movePieceType == Piece.Pawn || capturedPieceType != Piece.None) {
-                RepetitionPositionHistory.clear();
-                fiftyMoveCounter = 0;
-            } else {
-                RepetitionPositionHistory.push(ZobristKey);
+    }
+
+    void PushHistory() {
+        historyIndex++;
+        if (historyIndex == gameStateHistory.length) {
+            gameStateHistory = Arrays.copyOf(gameStateHistory, gameStateHistory.length * 2);
+            zobristKeyHistory = Arrays.copyOf(zobristKeyHistory, zobristKeyHistory.length * 2);
+        }
+        gameStateHistory[historyIndex] = currentGameState;
+        zobristKeyHistory[historyIndex] = ZobristKey;
+    }
+
+    // Whether the current position has occurred before. Only positions since the last
+    // irreversible move can be the same, and of those only every second one has the
+    // same side to move (and the one two plies ago can't be the same either).
+    public boolean IsRepetition() {
+        int firstIndex = Math.max(0, historyIndex - fiftyMoveCounter);
+        for (int i = historyIndex - 4; i >= firstIndex; i -= 2) {
+            if (zobristKeyHistory[i] == ZobristKey) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Number of times the current position has occurred before (e.g. for the threefold repetition rule)
+    public int CountRepetitions() {
+        int numRepetitions = 0;
+        int firstIndex = Math.max(0, historyIndex - fiftyMoveCounter);
+        for (int i = historyIndex - 4; i >= firstIndex; i -= 2) {
+            if (zobristKeyHistory[i] == ZobristKey) {
+                numRepetitions++;
             }
         }
+        return numRepetitions;
+    }
+
+    // Copies the position, including the history of the positions that led to it, into the
+    // target board. The arrays of the target are reused (the histories only grow if they're
+    // too short), so this is much cheaper than loading the position from a fen string, and
+    // the target can be handed to another thread while this board keeps changing.
+    public void CopyInto(Board target) {
+        System.arraycopy(Square, 0, target.Square, 0, 64);
+        System.arraycopy(KingSquare, 0, target.KingSquare, 0, 2);
+        for (int i = 0; i < allPieceLists.length; i++) {
+            target.allPieceLists[i].copyFrom(allPieceLists[i]);
+        }
+        System.arraycopy(pieceBitboards, 0, target.pieceBitboards, 0, pieceBitboards.length);
+        System.arraycopy(colourBitboards, 0, target.colourBitboards, 0, 2);
+        target.allPiecesBitboard = allPiecesBitboard;
+        System.arraycopy(material, 0, target.material, 0, 2);
+        System.arraycopy(nonPawnMaterial, 0, target.nonPawnMaterial, 0, 2);
+        System.arraycopy(pstMiddlegame, 0, target.pstMiddlegame, 0, 2);
+        System.arraycopy(pstEndgame, 0, target.pstEndgame, 0, 2);
+
+        target.whiteToMove = whiteToMove;
+        target.colourToMove = colourToMove;
+        target.opponentColour = opponentColour;
+        target.colourToMoveIndex = colourToMoveIndex;
+        target.currentGameState = currentGameState;
+        target.plyCount = plyCount;
+        target.fiftyMoveCounter = fiftyMoveCounter;
+        target.ZobristKey = ZobristKey;
+        target.PawnKey = PawnKey;
+
+        if (target.gameStateHistory.length < gameStateHistory.length) {
+            target.gameStateHistory = new int[gameStateHistory.length];
+            target.zobristKeyHistory = new long[zobristKeyHistory.length];
+        }
+        System.arraycopy(gameStateHistory, 0, target.gameStateHistory, 0, historyIndex + 1);
+        System.arraycopy(zobristKeyHistory, 0, target.zobristKeyHistory, 0, historyIndex + 1);
+        target.historyIndex = historyIndex;
     }
 
     public void UnmakeMove(Move move) {
         UnmakeMove(move, false);
     }
 
+    public void UnmakeMove(Move move, boolean inSearch) {
+        UnmakeMove(move.moveValue, inSearch);
+    }
+
     // Undo a move previously made on the board
-    public void UnmakeMove (Move move, boolean inSearch) {
+    public void UnmakeMove (int move, boolean inSearch) {
 
 			//int opponentColour = ColourToMove;
 			int opponentColourIndex = colourToMoveIndex;
@@ -223,14 +355,14 @@ public class Board {
 
 			int originalCastleState = currentGameState & 0b1111;
 
-			int capturedPieceType = ((int) currentGameState >> 8) & 63;
+			int capturedPieceType = (currentGameState >> 8) & 63;
 			int capturedPiece = (capturedPieceType == 0) ? 0 : capturedPieceType | opponentColour;
 
-			int movedFrom = move.getStartSquare();
-			int movedTo = move.getTargetSquare();
-			int moveFlags = move.getMoveFlag();
+			int movedFrom = Move.getStartSquare(move);
+			int movedTo = Move.getTargetSquare(move);
+			int moveFlags = Move.getMoveFlag(move);
 			boolean isEnPassant = moveFlags == Move.Flag.EnPassantCapture;
-			boolean isPromotion = move.isPromotion();
+			boolean isPromotion = Move.isPromotion(move);
 
 			int toSquarePieceType = Piece.getPieceType (Square[movedTo]);
 			int movedPieceType = (isPromotion) ? Piece.Pawn : toSquarePieceType;
@@ -248,6 +380,7 @@ public class Board {
 			if (capturedPieceType != 0 && !isEnPassant) {
 				ZobristKey ^= ZobristHashing.piecesArray[capturedPieceType][opponentColourIndex][movedTo];
 				GetPieceList (capturedPieceType, opponentColourIndex).addPieceAtSquare(movedTo);
+				TogglePieceBitboards(capturedPieceType, opponentColourIndex, movedTo);
 			}
 
 			// Update king index
@@ -260,6 +393,8 @@ public class Board {
 			// put back moved piece
 			Square[movedFrom] = movedPieceType | colourToMove; // note that if move was a pawn promotion, this will put the promoted piece back instead of the pawn. Handled in special move switch
 			Square[movedTo] = capturedPiece; // will be 0 if no piece was captured
+			TogglePieceBitboards(toSquarePieceType, colourToMoveIndex, movedTo);
+			TogglePieceBitboards(movedPieceType, colourToMoveIndex, movedFrom);
 
 			if (isPromotion) {
 				pawns[colourToMoveIndex].addPieceAtSquare (movedFrom);
@@ -282,6 +417,7 @@ public class Board {
 				Square[movedTo] = 0;
 				Square[epIndex] = (int) capturedPiece;
 				pawns[opponentColourIndex].addPieceAtSquare (epIndex);
+				TogglePieceBitboards(Piece.Pawn, opponentColourIndex, epIndex);
 				ZobristKey ^= ZobristHashing.piecesArray[Piece.Pawn][opponentColourIndex][epIndex];
 			} else if (moveFlags == Move.Flag.Castling) { // castles: move rook back to starting square
 
@@ -293,15 +429,18 @@ public class Board {
 				Square[castlingRookFromIndex] = Piece.Rook | colourToMove;
 
 				rooks[colourToMoveIndex].movePiece(castlingRookToIndex, castlingRookFromIndex);
+				TogglePieceBitboards(Piece.Rook, colourToMoveIndex, castlingRookToIndex);
+				TogglePieceBitboards(Piece.Rook, colourToMoveIndex, castlingRookFromIndex);
 				ZobristKey ^= ZobristHashing.piecesArray[Piece.Rook][colourToMoveIndex][castlingRookFromIndex];
 				ZobristKey ^= ZobristHashing.piecesArray[Piece.Rook][colourToMoveIndex][castlingRookToIndex];
 
 			}
+			allPiecesBitboard = colourBitboards[WHITE_INDEX] | colourBitboards[BLACK_INDEX];
 
-			gameStateHistory.pop(); // removes current state from history
-			currentGameState = gameStateHistory.peek(); // sets current state to previous state in history
+			historyIndex--; // removes current state from history
+			currentGameState = gameStateHistory[historyIndex]; // sets current state to previous state in history
 
-			fiftyMoveCounter = (int) (currentGameState & 4294950912l) >> 14;
+			fiftyMoveCounter = currentGameState >>> 14;
 			int newEnPassantFile = (int) (currentGameState >> 4) & 15;
 			if (newEnPassantFile != 0)
 				ZobristKey ^= ZobristHashing.enPassantFile[newEnPassantFile];
@@ -314,12 +453,46 @@ public class Board {
 
 			plyCount--;
 
-			if (!inSearch && RepetitionPositionHistory.size() > 0) {
-				RepetitionPositionHistory.pop();
-			}
-
 		}
 
+    // Passes the turn to the opponent without moving a piece (for null move pruning).
+    // Castling rights stay the same, a possible en-passant square is cleared.
+    // Positions before a null move don't count as repetitions of positions after it.
+    public void MakeNullMove() {
+        int oldEnPassantFile = (currentGameState >> 4) & 15;
+        if (oldEnPassantFile != 0)
+            ZobristKey ^= ZobristHashing.enPassantFile[oldEnPassantFile];
+        ZobristKey ^= ZobristHashing.sideToMove;
+
+        fiftyMoveCounter = 0;
+        currentGameState = currentGameState & 15;
+        PushHistory();
+
+        whiteToMove = !whiteToMove;
+        colourToMove = (whiteToMove) ? Piece.White : Piece.Black;
+        opponentColour = (whiteToMove) ? Piece.Black : Piece.White;
+        colourToMoveIndex = 1 - colourToMoveIndex;
+        plyCount++;
+    }
+
+    // Undo a null move previously made on the board
+    public void UnmakeNullMove() {
+        ZobristKey ^= ZobristHashing.sideToMove;
+
+        historyIndex--;
+        currentGameState = gameStateHistory[historyIndex];
+        fiftyMoveCounter = currentGameState >>> 14;
+        int enPassantFile = (currentGameState >> 4) & 15;
+        if (enPassantFile != 0)
+            ZobristKey ^= ZobristHashing.enPassantFile[enPassantFile];
+
+        whiteToMove = !whiteToMove;
+        colourToMove = (whiteToMove) ? Piece.White : Piece.Black;
+        opponentColour = (whiteToMove) ? Piece.Black : Piece.White;
+        colourToMoveIndex = 1 - colourToMoveIndex;
+        plyCount--;
+    }
+
     // Load the starting position
     public void LoadStartPosition() {
         LoadPosition(FenUtility.startFen);
@@ -338,6 +511,7 @@ public class Board {
             if (piece != Piece.None) {
                 int pieceType = Piece.getPieceType(piece);
                 int pieceColourIndex = (Piece.isColour(piece, Piece.White)) ? WHITE_INDEX : BLACK_INDEX;
+                TogglePieceBitboards(pieceType, pieceColourIndex, squareIndex);
                 if (Piece.isSlidingPiece(piece)) {
                     if (pieceType == Piece.Queen) {
                         queens[pieceColourIndex].addPieceAtSquare(squareIndex);
@@ -356,6 +530,8 @@ public class Board {
             }
         }
 
+        allPiecesBitboard = colourBitboards[WHITE_INDEX] | colourBitboards[BLACK_INDEX];
+
         // Side to move
         whiteToMove = loadedPosition.whiteToMove;
         colourToMove = (whiteToMove) ? Piece.White : Piece.Black;
@@ -368,22 +544,31 @@ public class Board {
         int blackCastle = ((loadedPosition.blackCastleKingside) ? 1 << 2 : 0)
                 | ((loadedPosition.blackCastleQueenside) ? 1 << 3 : 0);
         int epState = loadedPosition.epFile << 4;
-        short initialGameState = (short) (whiteCastle | blackCastle | epState);
-        gameStateHistory.push(Integer.valueOf(initialGameState));
-        currentGameState = (int) initialGameState;
+        currentGameState = whiteCastle | blackCastle | epState;
         plyCount = loadedPosition.plyCount;
 
         // Initialize zobrist key
         ZobristKey = ZobristHashing.calculateZobristKey(this);
+        gameStateHistory[0] = currentGameState;
+        zobristKeyHistory[0] = ZobristKey;
     }
 
     void Initialize() {
         Square = new int[64];
         KingSquare = new int[2];
-
-        gameStateHistory = new Stack<Integer>();
+        pieceBitboards = new long[16];
+        colourBitboards = new long[2];
+        allPiecesBitboard = 0;
+        material = new int[2];
+        nonPawnMaterial = new int[2];
+        pstMiddlegame = new int[2];
+        pstEndgame = new int[2];
+
+        gameStateHistory = new int[INITIAL_HISTORY_CAPACITY];
+        zobristKeyHistory = new long[INITIAL_HISTORY_CAPACITY];
+        historyIndex = 0;
         ZobristKey = 0l;
-        RepetitionPositionHistory = new Stack<Long>();
+        PawnKey = 0;
         plyCount = 0;
         fiftyMoveCounter = 0;
 
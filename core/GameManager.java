@@ -54,7 +54,7 @@ public class GameManager implements Runnable {
 
 	public void OnMoveChosen(Move move) {
 		board.MakeMove(move);
-		searchBoard.MakeMove(move);
+		board.CopyInto(searchBoard);
 
 		gameMoves.add(move);
 		NotifyPlayerToMove();
@@ -64,11 +64,10 @@ public class GameManager implements Runnable {
 		gameMoves.clear();
 		if (loadCustomPosition) {
 			board.LoadPosition(customPosition);
-			searchBoard.LoadPosition(customPosition);
 		} else {
 			board.LoadStartPosition();
-			searchBoard.LoadStartPosition();
 		}
+		board.CopyInto(searchBoard);
 		boolean isWhitePerspective = blackPlayerType == PlayerType.Human && whitePlayerType == PlayerType.AI
 				? false
 				: true;
@@ -136,8 +135,8 @@ public class GameManager implements Runnable {
 		}
 
 		// Threefold repetition
-		int repCount = (int) board.RepetitionPositionHistory.stream().filter(x -> x.equals(board.ZobristKey)).count();
-		if (repCount == 3) {
+		int repCount = board.CountRepetitions() + 1;
+		if (repCount >= 3) {
 			return Result.Repetition;
 		}
 
@@ -158,7 +157,7 @@ public class GameManager implements Runnable {
 	}
 
 	private Player CreatePlayer(PlayerType playerType, boolean isWhite) {
-		return playerType == PlayerType.Human ? new HumanPlayer(this, board, isWhite) : new AIPlayer(this, board, isWhite);
+		return playerType == PlayerType.Human ? new HumanPlayer(this, board, isWhite) : new AIPlayer(this, searchBoard, isWhite);
 	}
 
 	private PlayerType askPlayerType(boolean forWhite) {
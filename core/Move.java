@@ -61,20 +61,16 @@ public class Move {
         }
         int startSquare = BoardUtility.getIndexFromSquareName(lan.substring(0, 2));
         int targetSquare = BoardUtility.getIndexFromSquareName(lan.substring(2, 4));
-        int wantedPromotionFlag = lan.length() == 5 ? "qnrb".indexOf(lan.substring(4)) + 3 : 0;
+        // Flags of the promotions are in the same order as "qnrb", promoting to a queen if no piece is given
+        int wantedPromotionFlag = lan.length() == 5 ? "qnrb".indexOf(lan.substring(4)) + 3 : Flag.PromoteToQueen;
         boolean moveIsLegal = false;
         Move chosenMove = null;
         MoveGenerator moveGenerator = new MoveGenerator();
         List<Move> legalMoves = moveGenerator.generateMoves(board);
         for (Move legalMove : legalMoves) {
             if (legalMove.getStartSquare() == startSquare && legalMove.getTargetSquare() == targetSquare) {
-                if (legalMove.isPromotion()){
-                    if(legalMove.getMoveFlag() == Move.Flag.PromoteToQueen && (wantedPromotionFlag == Move.Flag.PromoteToKnight)){
-                        break;
-                    }
-                    if(legalMove.getMoveFlag() != Move.Flag.PromoteToQueen && (wantedPromotionFlag != Move.Flag.PromoteToKnight)){
-                        continue;
-                    }
+                if (legalMove.isPromotion() && legalMove.getMoveFlag() != wantedPromotionFlag) {
+                    continue;
                 }
                 moveIsLegal = true;
                 chosenMove = legalMove;
@@ -90,23 +86,46 @@ public class Move {
     }
 
     public int getStartSquare() {
-        return moveValue & START_SQUARE_MASK;
+        return getStartSquare(moveValue);
     }
 
     public int getTargetSquare() {
-        return (moveValue & TARGET_SQUARE_MASK) >> 6;
+        return getTargetSquare(moveValue);
     }
 
     public boolean isPromotion() {
-        int flag = getMoveFlag();
-        return flag == Flag.PromoteToQueen || flag == Flag.PromoteToRook || flag == Flag.PromoteToKnight
-                || flag == Flag.PromoteToBishop;
+        return isPromotion(moveValue);
     }
 
     public int getMoveFlag() {
+        return getMoveFlag(moveValue);
+    }
+
+    // The static variants below work on a plain move value, so that moves can be
+    // generated and searched without allocating Move objects
+
+    public static int encode(int startSquare, int targetSquare, int flag) {
+        return startSquare | targetSquare << 6 | flag << 12;
+    }
+
+    public static int getStartSquare(int moveValue) {
+        return moveValue & START_SQUARE_MASK;
+    }
+
+    public static int getTargetSquare(int moveValue) {
+        return (moveValue & TARGET_SQUARE_MASK) >> 6;
+    }
+
+    public static int getMoveFlag(int moveValue) {
         return moveValue >> 12;
     }
 
+    public static boolean isPromotion(int moveValue) {
+        int flag = getMoveFlag(moveValue);
+        return flag == Flag.PromoteToQueen || flag == Flag.PromoteToRook || flag == Flag.PromoteToKnight
+                || flag == Flag.PromoteToBishop;
+    }
+
     public int getPromotionPieceType() {
         switch (getMoveFlag()) {
             case Flag.PromoteToRook:
@@ -142,10 +161,26 @@ public class Move {
 
     }
 
+    // Long algebraic notation of the move, e.g. e2e4 or e7e8q
     @Override
     public String toString() {
+        String promotion = "";
+        switch (getMoveFlag()) {
+            case Flag.PromoteToQueen:
+                promotion = "q";
+                break;
+            case Flag.PromoteToRook:
+                promotion = "r";
+                break;
+            case Flag.PromoteToBishop:
+                promotion = "b";
+                break;
+            case Flag.PromoteToKnight:
+                promotion = "n";
+                break;
+        }
         return BoardUtility.getSquareNameFromIndex(getStartSquare()) + ""
-                + BoardUtility.getSquareNameFromIndex(getTargetSquare());
+                + BoardUtility.getSquareNameFromIndex(getTargetSquare()) + promotion;
     }
 
     private static boolean isValidLan(String lan) {
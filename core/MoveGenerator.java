@@ -3,7 +3,7 @@ package core;
 import core.data.*;
 import core.util.*;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class MoveGenerator {
@@ -12,9 +12,14 @@ public class MoveGenerator {
         All, QueenOnly, QueenAndKnight
     }
 
+    // Upper bound for the number of legal moves in any position
+    public static final int MAX_MOVE_COUNT = 218;
+
     public PromotionMode promotionsToGenerate = PromotionMode.All;
 
-    List<Move> moves;
+    int[] moves;
+    int numMoves;
+    int[] listBuffer; // only used when moves are requested as a list
     boolean isWhiteToMove;
     int friendlyColour;
     int opponentColour;
@@ -34,6 +39,7 @@ public class MoveGenerator {
     long opponentSlidingAttackMap;
 
     boolean genQuiets;
+    boolean genCaptures;
     Board board;
 
     public List<Move> generateMoves(Board board) {
@@ -45,8 +51,44 @@ public class MoveGenerator {
      * optionally be excluded.
      */
     public List<Move> generateMoves(Board board, boolean includeQuietMoves) {
-        this.board = board;
+        if (listBuffer == null) {
+            listBuffer = new int[MAX_MOVE_COUNT];
+        }
+        int numMoves = generateMoves(board, listBuffer, includeQuietMoves);
+        List<Move> moveList = new ArrayList<Move>(numMoves);
+        for (int i = 0; i < numMoves; i++) {
+            moveList.add(new Move((short) listBuffer[i]));
+        }
+        return moveList;
+    }
+
+    /**
+     * Writes the values (see Move) of all legal moves in the current position into
+     * the given buffer, which must have room for MAX_MOVE_COUNT moves, and returns
+     * the number of moves. Non capturing moves can optionally be excluded. Nothing
+     * is allocated, so this is the variant to use inside the search.
+     */
+    public int generateMoves(Board board, int[] moveBuffer, boolean includeQuietMoves) {
         genQuiets = includeQuietMoves;
+        genCaptures = true;
+        return generateMoves(board, moveBuffer);
+    }
+
+    /**
+     * Like generateMoves, but only writes the legal moves that don't capture anything
+     * (including castling and promotions without a capture). Together with the
+     * captures only variant this covers all legal moves, so that the search can
+     * generate the quiet moves only once the captures haven't caused a cutoff.
+     */
+    public int generateQuietMoves(Board board, int[] moveBuffer) {
+        genQuiets = true;
+        genCaptures = false;
+        return generateMoves(board, moveBuffer);
+    }
+
+    int generateMoves(Board board, int[] moveBuffer) {
+        this.board = board;
+        moves = moveBuffer;
         init();
 
         CalculateAttackData();
@@ -54,14 +96,14 @@ public class MoveGenerator {
         
         // only king moves are valid in a double check position
         if (inDoubleCheck) {
-            return moves;
+            return numMoves;
         }
 
         generateSlidingMoves();
         generateKnightMoves();
         generatePawnMoves();
 
-        return moves;
+        return numMoves;
     }
 
     public boolean isInCheck() {
@@ -70,7 +112,7 @@ public class MoveGenerator {
     }
 
     void init() {
-        moves = new LinkedList<Move>();
+        numMoves = 0;
         inCheck = false;
         inDoubleCheck = false;
         pinsExistInPosition = false;
@@ -99,10 +141,12 @@ public class MoveGenerator {
                 if (!genQuiets || SquareIsInCheckRay(targetSquare)) {
                     continue;
                 }
+            } else if (!genCaptures) {
+                continue;
             }
 
             if (!SquareIsAttacked(targetSquare)) {
-                moves.add(new Move(friendlyKingSquare, targetSquare));
+                addMove(friendlyKingSquare, targetSquare);
                 // castling
                 if (!inCheck && !isCapture) {
                     // kingside
@@ -111,7 +155,7 @@ public class MoveGenerator {
                         int castleKingsideSquare = targetSquare + 1;
                         if (board.Square[castleKingsideSquare] == Piece.None) {
                             if (!SquareIsAttacked(castleKingsideSquare)) {
-                                moves.add(new Move(friendlyKingSquare, castleKingsideSquare, Move.Flag.Castling));
+                                addMove(friendlyKingSquare, castleKingsideSquare, Move.Flag.Castling);
                             }
                         }
                     }
@@ -122,7 +166,7 @@ public class MoveGenerator {
                         if (board.Square[castleQueensideSquare] == Piece.None
                                 && board.Square[castleQueensideSquare - 1] == Piece.None) {
                             if (!SquareIsAttacked(castleQueensideSquare)) {
-                                moves.add(new Move(friendlyKingSquare, castleQueensideSquare, Move.Flag.Castling));
+                                addMove(friendlyKingSquare, castleQueensideSquare, Move.Flag.Castling);
                             }
                         }
                     }
@@ -132,53 +176,49 @@ public class MoveGenerator {
     }
 
     void generateSlidingMoves() {
-        PieceList rooks = board.rooks[friendlyColourIndex];
-        for (int i = 0; i < rooks.size(); i++) {
-            generateSlidingPieceMoves(rooks.get(i), 0, 4);
+        // Sliding pieces may not move onto friendly pieces, must capture if quiet moves are
+        // excluded, and must block or capture the checking piece if in check
+        long moveMask = ~board.colourBitboards[friendlyColourIndex];
+        if (!genQuiets) {
+            moveMask &= board.colourBitboards[opponentColourIndex];
         }
-
-        PieceList bishops = board.bishops[friendlyColourIndex];
-        for (int i = 0; i < bishops.size(); i++) {
-            generateSlidingPieceMoves(bishops.get(i), 4, 8);
+        if (!genCaptures) {
+            moveMask &= ~board.colourBitboards[opponentColourIndex];
         }
-
-        PieceList queens = board.queens[friendlyColourIndex];
-        for (int i = 0; i < queens.size(); i++) {
-            generateSlidingPieceMoves(queens.get(i), 0, 8);
+        if (inCheck) {
+            moveMask &= checkRayBitmask;
+        }
+        long blockers = board.allPiecesBitboard;
+        long friendlyQueens = board.GetPieceBitboard(Piece.Queen, friendlyColourIndex);
+
+        long orthogonalSliders = board.GetPieceBitboard(Piece.Rook, friendlyColourIndex) | friendlyQueens;
+        while (orthogonalSliders != 0) {
+            int startSquare = Long.numberOfTrailingZeros(orthogonalSliders);
+            orthogonalSliders &= orthogonalSliders - 1;
+            generateSlidingPieceMoves(startSquare, Magic.GetRookAttacks(startSquare, blockers) & moveMask);
         }
 
-    }
-
-    void generateSlidingPieceMoves(int startSquare, int startDirIndex, int endDirIndex) {
-        boolean isPinned = IsPinned(startSquare);
-        if (inCheck && isPinned) {
-            return;
+        long diagonalSliders = board.GetPieceBitboard(Piece.Bishop, friendlyColourIndex) | friendlyQueens;
+        while (diagonalSliders != 0) {
+            int startSquare = Long.numberOfTrailingZeros(diagonalSliders);
+            diagonalSliders &= diagonalSliders - 1;
+            generateSlidingPieceMoves(startSquare, Magic.GetBishopAttacks(startSquare, blockers) & moveMask);
         }
+    }
 
-        for (int directionIndex = startDirIndex; directionIndex < endDirIndex; directionIndex++) {
-            int currentDirOffset = PrecomputedMoveData.directionOffsets[directionIndex];
-            if (isPinned && !IsMovingAlongRay(currentDirOffset, friendlyKingSquare, startSquare)) {
-                continue;
+    void generateSlidingPieceMoves(int startSquare, long targetSquares) {
+        if (IsPinned(startSquare)) {
+            // A pinned piece can't resolve a check, and may otherwise only move along the pin ray
+            if (inCheck) {
+                return;
             }
+            targetSquares &= PrecomputedMoveData.alignMask[startSquare][friendlyKingSquare];
+        }
 
-            for (int n = 0; n < PrecomputedMoveData.numSquaresToEdge[startSquare][directionIndex]; n++) {
-                int targetSquare = startSquare + currentDirOffset * (n + 1);
-                int targetSquarePiece = board.Square[targetSquare];
-                if (Piece.isColour(targetSquarePiece, friendlyColour)) {
-                    break;
-                }
-                boolean isCapture = targetSquarePiece != Piece.None;
-
-                boolean movePreventsCheck = SquareIsInCheckRay(targetSquare);
-                if (movePreventsCheck || !inCheck) {
-                    if (genQuiets || isCapture) {
-                        moves.add(new Move(startSquare, targetSquare));
-                    }
-                }
-                if (isCapture || movePreventsCheck) {
-                    break;
-                }
-            }
+        while (targetSquares != 0) {
+            int targetSquare = Long.numberOfTrailingZeros(targetSquares);
+            targetSquares &= targetSquares - 1;
+            addMove(startSquare, targetSquare);
         }
     }
 
@@ -196,12 +236,12 @@ public class MoveGenerator {
                 int targetSquare = PrecomputedMoveData.knightMoves[startSquare][knightMoveIndex];
                 int targetSquarePiece = board.Square[targetSquare];
                 boolean isCapture = Piece.isColour(targetSquarePiece, opponentColour);
-                if (genQuiets || isCapture) {
+                if (isCapture ? genCaptures : genQuiets) {
                     if (Piece.isColour(targetSquarePiece, friendlyColour)
                             || (inCheck && !SquareIsInCheckRay(targetSquare))) {
                         continue;
                     }
-                    moves.add(new Move(startSquare, targetSquare));
+                    addMove(startSquare, targetSquare);
                 }
             }
         }
@@ -234,7 +274,7 @@ public class MoveGenerator {
                             if (oneStepFromPromotion) {
                                 MakePromotionMoves(startSquare, squareOneForward);
                             } else {
-                                moves.add(new Move(startSquare, squareOneForward));
+                                addMove(startSquare, squareOneForward);
                             }
                         }
 
@@ -242,7 +282,7 @@ public class MoveGenerator {
                             int squareTwoForward = squareOneForward + pawnOffset;
                             if (board.Square[squareTwoForward] == Piece.None) {
                                 if (!inCheck || SquareIsInCheckRay(squareTwoForward)) {
-                                    moves.add(new Move(startSquare, squareTwoForward, Move.Flag.PawnTwoForward));
+                                    addMove(startSquare, squareTwoForward, Move.Flag.PawnTwoForward);
                                 }
                             }
                         }
@@ -250,6 +290,9 @@ public class MoveGenerator {
                 }
             }
 
+            if (!genCaptures) {
+                continue;
+            }
             for (int j = 0; j < 2; j++) {
                 if (PrecomputedMoveData.numSquaresToEdge[startSquare][PrecomputedMoveData.pawnAttackDirections[friendlyColourIndex][j]] > 0) {
                     int pawnCaptureDir = PrecomputedMoveData.directionOffsets[PrecomputedMoveData.pawnAttackDirections[friendlyColourIndex][j]];
@@ -265,13 +308,13 @@ public class MoveGenerator {
                         if (oneStepFromPromotion) {
                             MakePromotionMoves(startSquare, targetSquare);
                         } else {
-                            moves.add(new Move(startSquare, targetSquare));
+                            addMove(startSquare, targetSquare);
                         }
                     }
                     if (targetSquare == enPassantSquare) {
                         int epCapturedPawnSquare = targetSquare + ((board.whiteToMove) ? -8 : 8);
                         if (!InCheckAfterEnPassant(startSquare, targetSquare, epCapturedPawnSquare)) {
-                            moves.add(new Move(startSquare, targetSquare, Move.Flag.EnPassantCapture));
+                            addMove(startSquare, targetSquare, Move.Flag.EnPassantCapture);
                         }
                     }
                 }
@@ -279,14 +322,22 @@ public class MoveGenerator {
         }
     }
 
+    void addMove(int startSquare, int targetSquare) {
+        moves[numMoves++] = Move.encode(startSquare, targetSquare, Move.Flag.None);
+    }
+
+    void addMove(int startSquare, int targetSquare, int flag) {
+        moves[numMoves++] = Move.encode(startSquare, targetSquare, flag);
+    }
+
     void MakePromotionMoves(int fromSquare, int toSquare) {
-        moves.add(new Move(fromSquare, toSquare, Move.Flag.PromoteToQueen));
+        addMove(fromSquare, toSquare, Move.Flag.PromoteToQueen);
         if (promotionsToGenerate == PromotionMode.All) {
-            moves.add(new Move(fromSquare, toSquare, Move.Flag.PromoteToKnight));
-            moves.add(new Move(fromSquare, toSquare, Move.Flag.PromoteToRook));
-            moves.add(new Move(fromSquare, toSquare, Move.Flag.PromoteToBishop));
+            addMove(fromSquare, toSquare, Move.Flag.PromoteToKnight);
+            addMove(fromSquare, toSquare, Move.Flag.PromoteToRook);
+            addMove(fromSquare, toSquare, Move.Flag.PromoteToBishop);
         } else if (promotionsToGenerate == PromotionMode.QueenAndKnight) {
-            moves.add(new Move(fromSquare, toSquare, Move.Flag.PromoteToKnight));
+            addMove(fromSquare, toSquare, Move.Flag.PromoteToKnight);
         }
 
     }
@@ -318,95 +369,54 @@ public class MoveGenerator {
 
     void GenSlidingAttackMap() {
         opponentSlidingAttackMap = 0;
-
-        PieceList enemyRooks = board.rooks[opponentColourIndex];
-        for (int i = 0; i < enemyRooks.size(); i++) {
-            UpdateSlidingAttackPiece(enemyRooks.get(i), 0, 4);
-        }
-
-        PieceList enemyQueens = board.queens[opponentColourIndex];
-        for (int i = 0; i < enemyQueens.size(); i++) {
-            UpdateSlidingAttackPiece(enemyQueens.get(i), 0, 8);
-        }
-
-        PieceList enemyBishops = board.bishops[opponentColourIndex];
-        for (int i = 0; i < enemyBishops.size(); i++) {
-            UpdateSlidingAttackPiece(enemyBishops.get(i), 4, 8);
+        // Attacks go through the friendly king, so that it can't step back along the ray of a checking piece
+        long blockers = board.allPiecesBitboard & ~(1l << friendlyKingSquare);
+        long opponentQueens = board.GetPieceBitboard(Piece.Queen, opponentColourIndex);
+
+        long orthogonalSliders = board.GetPieceBitboard(Piece.Rook, opponentColourIndex) | opponentQueens;
+        while (orthogonalSliders != 0) {
+            int startSquare = Long.numberOfTrailingZeros(orthogonalSliders);
+            orthogonalSliders &= orthogonalSliders - 1;
+            opponentSlidingAttackMap |= Magic.GetRookAttacks(startSquare, blockers);
         }
-    }
 
-    void UpdateSlidingAttackPiece(int startSquare, int startDirIndex, int endDirIndex) {
-        for (int directionIndex = startDirIndex; directionIndex < endDirIndex; directionIndex++) {
-            int currentDirOffset = PrecomputedMoveData.directionOffsets[directionIndex];
-            for (int n = 0; n < PrecomputedMoveData.numSquaresToEdge[startSquare][directionIndex]; n++) {
-                int targetSquare = startSquare + currentDirOffset * (n + 1);
-                int targetSquarePiece = board.Square[targetSquare];
-                opponentSlidingAttackMap |= 1l << targetSquare;
-                if (targetSquare != friendlyKingSquare) {
-                    if (targetSquarePiece != Piece.None) {
-                        break;
-                    }
-                }
-            }
+        long diagonalSliders = board.GetPieceBitboard(Piece.Bishop, opponentColourIndex) | opponentQueens;
+        while (diagonalSliders != 0) {
+            int startSquare = Long.numberOfTrailingZeros(diagonalSliders);
+            diagonalSliders &= diagonalSliders - 1;
+            opponentSlidingAttackMap |= Magic.GetBishopAttacks(startSquare, blockers);
         }
     }
 
     void CalculateAttackData() {
         GenSlidingAttackMap();
-        int startDirIndex = 0;
-        int endDirIndex = 8;
-
-        if (board.queens[opponentColourIndex].size() == 0) {
-            startDirIndex = (board.rooks[opponentColourIndex].size() > 0) ? 0 : 4;
-            endDirIndex = (board.bishops[opponentColourIndex].size() > 0) ? 8 : 4;
-        }
-
-        for (int dir = startDirIndex; dir < endDirIndex; dir++) {
-            boolean isDiagonal = dir > 3;
-
-            int n = PrecomputedMoveData.numSquaresToEdge[friendlyKingSquare][dir];
-            int directionOffset = PrecomputedMoveData.directionOffsets[dir];
-            boolean isFriendlyPieceAlongRay = false;
-            long rayMask = 0;
-
-            for (int i = 0; i < n; i++) {
-                int squareIndex = friendlyKingSquare + directionOffset * (i + 1);
-                rayMask |= 1l << squareIndex;
-                int piece = board.Square[squareIndex];
-                if (piece != Piece.None) {
-                    if (Piece.isColour(piece, friendlyColour)) {
-                        if (!isFriendlyPieceAlongRay) {
-                            isFriendlyPieceAlongRay = true;
-                        }
-                        else {
-                            break;
-                        }
-                    }
-                    else {
-                        int pieceType = Piece.getPieceType(piece);
-                        if (isDiagonal && Piece.isBishopOrQueen(pieceType)
-                                || !isDiagonal && Piece.isRookOrQueen(pieceType)) {
-                            if (isFriendlyPieceAlongRay) {
-                                pinsExistInPosition = true;
-                                pinRayBitmask |= rayMask;
-                            }
-                            else {
-                                checkRayBitmask |= rayMask;
-                                inDoubleCheck = inCheck; // if already in check, then this is double check
-                                inCheck = true;
-                            }
-                            break;
-                        } else {
-                            break;
-                        }
-                    }
-                }
-            }
-            if (inDoubleCheck) {
-                break;
-            }
 
+        // Enemy sliders that would attack the king if all friendly pieces were removed from the board.
+        // With no friendly piece in between, the slider gives check; with exactly one, that piece is pinned.
+        long opponentQueens = board.GetPieceBitboard(Piece.Queen, opponentColourIndex);
+        long opponentOrthogonalSliders = board.GetPieceBitboard(Piece.Rook, opponentColourIndex) | opponentQueens;
+        long opponentDiagonalSliders = board.GetPieceBitboard(Piece.Bishop, opponentColourIndex) | opponentQueens;
+        long opponentPieces = board.colourBitboards[opponentColourIndex];
+        long friendlyPieces = board.colourBitboards[friendlyColourIndex];
+
+        long potentialAttackers = (Magic.GetRookAttacks(friendlyKingSquare, opponentPieces) & opponentOrthogonalSliders)
+                | (Magic.GetBishopAttacks(friendlyKingSquare, opponentPieces) & opponentDiagonalSliders);
+        while (potentialAttackers != 0) {
+            int attackerSquare = Long.numberOfTrailingZeros(potentialAttackers);
+            potentialAttackers &= potentialAttackers - 1;
+
+            long rayMask = PrecomputedMoveData.betweenMask[friendlyKingSquare][attackerSquare] | 1l << attackerSquare;
+            long friendlyPiecesAlongRay = rayMask & friendlyPieces;
+            if (friendlyPiecesAlongRay == 0) {
+                checkRayBitmask |= rayMask;
+                inDoubleCheck = inCheck; // if already in check, then this is double check
+                inCheck = true;
+            } else if ((friendlyPiecesAlongRay & (friendlyPiecesAlongRay - 1)) == 0) {
+                pinsExistInPosition = true;
+                pinRayBitmask |= rayMask;
+            }
         }
+
         PieceList opponentKnights = board.knights[opponentColourIndex];
         opponentKnightAttacks = 0;
         boolean isKnightCheck = false;
@@ -451,52 +461,176 @@ public class MoveGenerator {
     }
 
     boolean InCheckAfterEnPassant(int startSquare, int targetSquare, int epCapturedPawnSquare) {
-        board.Square[targetSquare] = board.Square[startSquare];
-        board.Square[startSquare] = Piece.None;
-        board.Square[epCapturedPawnSquare] = Piece.None;
-
-        boolean inCheckAfterEpCapture = false;
-        if (SquareAttackedAfterEPCapture(epCapturedPawnSquare, startSquare)) {
-            inCheckAfterEpCapture = true;
-        }
-        board.Square[targetSquare] = Piece.None;
-        board.Square[startSquare] = Piece.Pawn | friendlyColour;
-        board.Square[epCapturedPawnSquare] = Piece.Pawn | opponentColour;
-        return inCheckAfterEpCapture;
+        // En-passant removes two pieces from the same rank, so it may reveal attacks that
+        // aren't covered by the regular pin detection. Look at the board after the capture.
+        long blockers = board.allPiecesBitboard ^ (1l << startSquare) ^ (1l << epCapturedPawnSquare) | (1l << targetSquare);
+        long opponentQueens = board.GetPieceBitboard(Piece.Queen, opponentColourIndex);
+        long opponentOrthogonalSliders = board.GetPieceBitboard(Piece.Rook, opponentColourIndex) | opponentQueens;
+        long opponentDiagonalSliders = board.GetPieceBitboard(Piece.Bishop, opponentColourIndex) | opponentQueens;
+
+        if ((Magic.GetRookAttacks(friendlyKingSquare, blockers) & opponentOrthogonalSliders) != 0
+                || (Magic.GetBishopAttacks(friendlyKingSquare, blockers) & opponentDiagonalSliders) != 0) {
+            return true;
+        }
+        if ((PrecomputedMoveData.knightAttackBitboards[friendlyKingSquare] & board.GetPieceBitboard(Piece.Knight, opponentColourIndex)) != 0) {
+            return true;
+        }
+        long remainingOpponentPawns = board.GetPieceBitboard(Piece.Pawn, opponentColourIndex) & ~(1l << epCapturedPawnSquare);
+        return (PrecomputedMoveData.pawnAttackBitboards[friendlyKingSquare][friendlyColourIndex] & remainingOpponentPawns) != 0;
     }
 
-    boolean SquareAttackedAfterEPCapture(int epCaptureSquare, int capturingPawnStartSquare) {
-        if (BitBoardUtility.ContainsSquare(opponentAttackMapNoPawns, friendlyKingSquare)) {
+    // Whether the king of the side to move is attacked, without generating any moves
+    // (e.g. to find out if the move just made gives check)
+    public static boolean IsInCheck(Board board) {
+        int colourIndex = board.colourToMoveIndex;
+        int opponentIndex = 1 - colourIndex;
+        int kingSquare = board.KingSquare[colourIndex];
+        long opponentQueens = board.GetPieceBitboard(Piece.Queen, opponentIndex);
+        long opponentOrthogonalSliders = board.GetPieceBitboard(Piece.Rook, opponentIndex) | opponentQueens;
+        long opponentDiagonalSliders = board.GetPieceBitboard(Piece.Bishop, opponentIndex) | opponentQueens;
+
+        if ((Magic.GetRookAttacks(kingSquare, board.allPiecesBitboard) & opponentOrthogonalSliders) != 0
+                || (Magic.GetBishopAttacks(kingSquare, board.allPiecesBitboard) & opponentDiagonalSliders) != 0) {
             return true;
         }
-        int dirIndex = (epCaptureSquare < friendlyKingSquare) ? 2 : 3;
-        for (int i = 0; i < PrecomputedMoveData.numSquaresToEdge[friendlyKingSquare][dirIndex]; i++) {
-            int squareIndex = friendlyKingSquare + PrecomputedMoveData.directionOffsets[dirIndex] * (i + 1);
-            int piece = board.Square[squareIndex];
-            if (piece != Piece.None) {
-                if (Piece.isColour(piece, friendlyColour)) {
-                    break;
+        if ((PrecomputedMoveData.knightAttackBitboards[kingSquare] & board.GetPieceBitboard(Piece.Knight, opponentIndex)) != 0) {
+            return true;
+        }
+        return (PrecomputedMoveData.pawnAttackBitboards[kingSquare][colourIndex] & board.GetPieceBitboard(Piece.Pawn, opponentIndex)) != 0;
+    }
+
+    // Whether the move is legal in the current position, without generating any moves. Meant
+    // for moves that were found in another position (e.g. stored in the transposition table
+    // under the same index, or a killer from a sibling node), so that they can be tried before
+    // the move generation, which is then often not needed at all.
+    public static boolean IsLegal(Board board, int move) {
+        int flag = Move.getMoveFlag(move);
+        if (move == 0 || flag > Move.Flag.PawnTwoForward) {
+            return false;
+        }
+        int startSquare = Move.getStartSquare(move);
+        int targetSquare = Move.getTargetSquare(move);
+        int piece = board.Square[startSquare];
+        int colourIndex = board.colourToMoveIndex;
+        int opponentIndex = 1 - colourIndex;
+        if (!Piece.isColour(piece, board.colourToMove) || (board.colourBitboards[colourIndex] & 1l << targetSquare) != 0) {
+            return false;
+        }
+        int pieceType = Piece.getPieceType(piece);
+        boolean isCapture = (board.colourBitboards[opponentIndex] & 1l << targetSquare) != 0;
+        // Squares of the opponent's pieces that the move removes from the board
+        long capturedMask = (isCapture) ? 1l << targetSquare : 0;
+
+        if (pieceType == Piece.Pawn) {
+            int pawnOffset = (colourIndex == Board.WHITE_INDEX) ? 8 : -8;
+            int targetRank = BoardUtility.RankIndex(targetSquare);
+            boolean isPromotion = targetRank == 0 || targetRank == 7;
+            if (Move.isPromotion(move) != isPromotion || flag == Move.Flag.Castling
+                    || (isCapture && flag == Move.Flag.PawnTwoForward)) {
+                return false;
+            }
+            if (flag == Move.Flag.EnPassantCapture) {
+                int enPassantFile = ((board.currentGameState >> 4) & 15) - 1;
+                int enPassantSquare = 8 * ((colourIndex == Board.WHITE_INDEX) ? 5 : 2) + enPassantFile;
+                if (enPassantFile < 0 || targetSquare != enPassantSquare
+                        || (PrecomputedMoveData.pawnAttackBitboards[startSquare][colourIndex] & 1l << targetSquare) == 0) {
+                    return false;
                 }
-                else {
-                    if (Piece.isRookOrQueen(piece)) {
-                        return true;
-                    } else {
-                        break;
-                    }
+                capturedMask = 1l << (targetSquare - pawnOffset);
+            } else if (isCapture) {
+                if ((PrecomputedMoveData.pawnAttackBitboards[startSquare][colourIndex] & 1l << targetSquare) == 0) {
+                    return false;
                 }
-            }
-        }
-        for (int i = 0; i < 2; i++) {
-            if (PrecomputedMoveData.numSquaresToEdge[friendlyKingSquare][PrecomputedMoveData.pawnAttackDirections[friendlyColourIndex][i]] > 0) {
-                int piece = board.Square[friendlyKingSquare
-                        + PrecomputedMoveData.directionOffsets[PrecomputedMoveData.pawnAttackDirections[friendlyColourIndex][i]]];
-                if (piece == (Piece.Pawn | opponentColour)) // is enemy pawn
-                {
-                    return true;
+            } else if (flag == Move.Flag.PawnTwoForward) {
+                int startRank = (colourIndex == Board.WHITE_INDEX) ? 1 : 6;
+                if (BoardUtility.RankIndex(startSquare) != startRank || targetSquare != startSquare + 2 * pawnOffset
+                        || board.Square[startSquare + pawnOffset] != Piece.None) {
+                    return false;
                 }
+            } else if (targetSquare != startSquare + pawnOffset) {
+                return false;
+            }
+        } else if (flag == Move.Flag.Castling) {
+            return pieceType == Piece.King && IsLegalCastle(board, startSquare, targetSquare);
+        } else if (flag != Move.Flag.None) {
+            return false;
+        } else {
+            long attacks;
+            switch (pieceType) {
+                case Piece.Knight:
+                    attacks = PrecomputedMoveData.knightAttackBitboards[startSquare];
+                    break;
+                case Piece.Bishop:
+                    attacks = Magic.GetBishopAttacks(startSquare, board.allPiecesBitboard);
+                    break;
+                case Piece.Rook:
+                    attacks = Magic.GetRookAttacks(startSquare, board.allPiecesBitboard);
+                    break;
+                case Piece.Queen:
+                    attacks = Magic.GetBishopAttacks(startSquare, board.allPiecesBitboard)
+                            | Magic.GetRookAttacks(startSquare, board.allPiecesBitboard);
+                    break;
+                default:
+                    attacks = PrecomputedMoveData.kingAttackBitboards[startSquare];
+                    break;
+            }
+            if ((attacks & 1l << targetSquare) == 0) {
+                return false;
             }
         }
 
-        return false;
+        // The move is possible, so it's legal if it doesn't leave the own king attacked
+        long occupied = (board.allPiecesBitboard & ~capturedMask & ~(1l << startSquare)) | 1l << targetSquare;
+        int kingSquare = (pieceType == Piece.King) ? targetSquare : board.KingSquare[colourIndex];
+        return !IsSquareAttacked(board, kingSquare, opponentIndex, occupied, capturedMask);
+    }
+
+    static boolean IsLegalCastle(Board board, int startSquare, int targetSquare) {
+        int colourIndex = board.colourToMoveIndex;
+        int kingStartSquare = (colourIndex == Board.WHITE_INDEX) ? BoardUtility.e1 : BoardUtility.e8;
+        if (startSquare != kingStartSquare) {
+            return false;
+        }
+        int castleMask;
+        int rookSquare;
+        if (targetSquare == startSquare + 2) {
+            castleMask = (colourIndex == Board.WHITE_INDEX) ? 1 : 4;
+            rookSquare = startSquare + 3;
+        } else if (targetSquare == startSquare - 2) {
+            castleMask = (colourIndex == Board.WHITE_INDEX) ? 2 : 8;
+            rookSquare = startSquare - 4;
+        } else {
+            return false;
+        }
+        // The squares between king and rook must be empty, and the king may not
+        // start on, pass through or end on an attacked square
+        long occupied = board.allPiecesBitboard;
+        if ((board.currentGameState & castleMask) == 0 || (PrecomputedMoveData.betweenMask[startSquare][rookSquare] & occupied) != 0) {
+            return false;
+        }
+        int passedSquare = (startSquare + targetSquare) / 2;
+        int opponentIndex = 1 - colourIndex;
+        return !IsSquareAttacked(board, startSquare, opponentIndex, occupied, 0)
+                && !IsSquareAttacked(board, passedSquare, opponentIndex, occupied, 0)
+                && !IsSquareAttacked(board, targetSquare, opponentIndex, occupied, 0);
+    }
+
+    // Whether a piece of the given colour attacks the square, given the occupied squares.
+    // Pieces on the squares of capturedMask are ignored.
+    static boolean IsSquareAttacked(Board board, int square, int attackerIndex, long occupied, long capturedMask) {
+        long attackerQueens = board.GetPieceBitboard(Piece.Queen, attackerIndex);
+        long orthogonalSliders = (board.GetPieceBitboard(Piece.Rook, attackerIndex) | attackerQueens) & ~capturedMask;
+        long diagonalSliders = (board.GetPieceBitboard(Piece.Bishop, attackerIndex) | attackerQueens) & ~capturedMask;
+        if ((Magic.GetRookAttacks(square, occupied) & orthogonalSliders) != 0
+                || (Magic.GetBishopAttacks(square, occupied) & diagonalSliders) != 0) {
+            return true;
+        }
+        if ((PrecomputedMoveData.knightAttackBitboards[square] & board.GetPieceBitboard(Piece.Knight, attackerIndex) & ~capturedMask) != 0) {
+            return true;
+        }
+        if ((PrecomputedMoveData.kingAttackBitboards[square] & board.GetPieceBitboard(Piece.King, attackerIndex)) != 0) {
+            return true;
+        }
+        return (PrecomputedMoveData.pawnAttackBitboards[square][1 - attackerIndex] & board.GetPieceBitboard(Piece.Pawn, attackerIndex) & ~capturedMask) != 0;
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,298 @@
+package core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+
+import core.ai.*;
+
+/**
+ * Front end for the Universal Chess Interface, so that the engine can be used
+ * from chess GUIs. Commands are read from stdin, the search runs on its own thread
+ * and reports each completed iteration as an info line.
+ * src: https://www.wbec-ridderkerk.nl/html/UCIProtocol.html
+ */
+public class UciEngine {
+
+    static final String ENGINE_NAME = "ChessAI";
+    static final String ENGINE_AUTHOR = "benheckmann";
+    static final int MAX_HASH_MB = 4096;
+    static final int MAX_THREADS = 256;
+
+    Board board;
+    AISettings settings;
+    Search search;
+    boolean searchOutdated; // set when an option changes that the search is constructed with
+    String hashFile = "hash.bin"; // file the transposition table is saved to and loaded from
+    Thread searchThread;
+    volatile boolean stopRequested;
+    volatile boolean infiniteSearch;
+
+    public UciEngine() {
+        board = new Board();
+        board.LoadStartPosition();
+        settings = new AISettings();
+        settings.useThreading = false;
+        settings.numThreads = 1;
+        searchOutdated = true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        new UciEngine().Run(new BufferedReader(new InputStreamReader(System.in)));
+    }
+
+    public void Run(BufferedReader input) throws IOException {
+        String line;
+        while ((line = input.readLine()) != null) {
+            if (!HandleCommand(line.trim())) {
+                break;
+            }
+        }
+        StopSearch();
+    }
+
+    // Returns false if the engine should quit
+    boolean HandleCommand(String command) {
+        String[] tokens = command.split("\\s+");
+        switch (tokens[0]) {
+            case "uci":
+                Send("id name " + ENGINE_NAME);
+                Send("id author " + ENGINE_AUTHOR);
+                Send("option name Hash type spin default " + settings.transpositionTableSizeMB + " min 1 max "
+                        + MAX_HASH_MB);
+                Send("option name Threads type spin default " + settings.numThreads + " min 1 max " + MAX_THREADS);
+                Send("option name HashFile type string default " + hashFile);
+                Send("option name SaveHash type button");
+                Send("option name LoadHash type button");
+                // Search parameters for tuning, spin options only take integers so these are in hundredths
+                Send("option name LMRBase type spin default " + Math.round(settings.lmrBase * 100) + " min 0 max 500");
+                Send("option name LMRDivisor type spin default " + Math.round(settings.lmrDivisor * 100)
+                        + " min 50 max 1000");
+                Send("uciok");
+                break;
+            case "isready":
+                Send("readyok");
+                break;
+            case "ucinewgame":
+                StopSearch();
+                board.LoadStartPosition();
+                break;
+            case "setoption":
+                StopSearch();
+                SetOption(command);
+                break;
+            case "position":
+                StopSearch();
+                SetPosition(tokens);
+                break;
+            case "go":
+                StopSearch();
+                Go(tokens);
+                break;
+            case "stop":
+                StopSearch();
+                break;
+            case "quit":
+                return false;
+            default:
+                // Unknown commands are ignored, as required by the protocol
+                break;
+        }
+        return true;
+    }
+
+    // setoption name <id> [value <x>] (buttons have no value)
+    void SetOption(String command) {
+        int nameIndex = command.indexOf(" name ");
+        int valueIndex = command.indexOf(" value ");
+        if (nameIndex < 0) {
+            return;
+        }
+        String name = command.substring(nameIndex + 6, (valueIndex > nameIndex) ? valueIndex : command.length()).trim();
+        String value = (valueIndex > nameIndex) ? command.substring(valueIndex + 7).trim() : "";
+        try {
+            if (name.equalsIgnoreCase("Hash")) {
+                settings.transpositionTableSizeMB = Math.max(1, Math.min(MAX_HASH_MB, Integer.parseInt(value)));
+                searchOutdated = true;
+            } else if (name.equalsIgnoreCase("Threads")) {
+                settings.numThreads = Math.max(1, Math.min(MAX_THREADS, Integer.parseInt(value)));
+                settings.useThreading = settings.numThreads > 1;
+                searchOutdated = true;
+            } else if (name.equalsIgnoreCase("LMRBase")) {
+                settings.lmrBase = Integer.parseInt(value) / 100.0;
+            } else if (name.equalsIgnoreCase("LMRDivisor")) {
+                settings.lmrDivisor = Math.max(1, Integer.parseInt(value)) / 100.0;
+            } else if (name.equalsIgnoreCase("HashFile")) {
+                hashFile = value;
+            } else if (name.equalsIgnoreCase("SaveHash")) {
+                UpdateSearch();
+                search.GetTranspositionTable().Save(Paths.get(hashFile));
+                Send("info string transposition table saved to " + hashFile);
+            } else if (name.equalsIgnoreCase("LoadHash")) {
+                UpdateSearch();
+                if (search.GetTranspositionTable().Load(Paths.get(hashFile))) {
+                    Send("info string transposition table loaded from " + hashFile);
+                } else {
+                    Send("info string " + hashFile + " doesn't hold a transposition table of this engine version");
+                }
+            }
+        } catch (NumberFormatException e) {
+            Send("info string invalid value for option " + name + ": " + value);
+        } catch (IOException e) {
+            Send("info string " + e);
+        }
+    }
+
+    // Creates the search again if an option it is constructed with has changed
+    void UpdateSearch() {
+        if (search == null || searchOutdated) {
+            search = new Search(board, null, settings);
+            search.onIterationComplete = this::SendInfo;
+            searchOutdated = false;
+        }
+    }
+
+    // position [fen <fenstring> | startpos] [moves <move1> ... <movei>]
+    void SetPosition(String[] tokens) {
+        int index = 1;
+        if (tokens.length > 1 && tokens[1].equals("startpos")) {
+            board.LoadStartPosition();
+            index = 2;
+        } else if (tokens.length > 1 && tokens[1].equals("fen")) {
+            StringBuilder fen = new StringBuilder();
+            for (index = 2; index < tokens.length && !tokens[index].equals("moves"); index++) {
+                fen.append(tokens[index]).append(' ');
+            }
+            board.LoadPosition(fen.toString().trim());
+        }
+        if (index < tokens.length && tokens[index].equals("moves")) {
+            for (index++; index < tokens.length; index++) {
+                try {
+                    board.MakeMove(new Move(board, tokens[index]));
+                } catch (IllegalArgumentException e) {
+                    Send("info string " + e.getMessage());
+                    return;
+                }
+            }
+        }
+    }
+
+    // go [depth <x>] [movetime <x>] [wtime <x>] [btime <x>] [winc <x>] [binc <x>] [movestogo <x>] [infinite]
+    void Go(String[] tokens) {
+        settings.useFixedDepthSearch = false;
+        settings.endlessSearchMode = false;
+        settings.clockRemainingMillis = 0;
+        settings.clockIncrementMillis = 0;
+        settings.movesToGo = 0;
+        boolean hasLimit = false;
+        boolean infinite = false;
+
+        for (int i = 1; i < tokens.length; i++) {
+            String value = (i + 1 < tokens.length) ? tokens[i + 1] : "0";
+            // A malformed value is reported and ignored, the rest of the command still applies
+            try {
+                switch (tokens[i]) {
+                    case "depth":
+                        settings.depth = Math.max(1, Integer.parseInt(value));
+                        settings.useFixedDepthSearch = true;
+                        hasLimit = true;
+                        break;
+                    case "movetime":
+                        settings.searchTimeMillis = Integer.parseInt(value);
+                        hasLimit = true;
+                        break;
+                    case "wtime":
+                    case "btime":
+                        // Any clock means a timed game. Without the clock of the side to move,
+                        // the search falls back to the fixed time per move.
+                        long clockMillis = Long.parseLong(value);
+                        if (tokens[i].equals("wtime") == board.whiteToMove) {
+                            settings.clockRemainingMillis = clockMillis;
+                        }
+                        hasLimit = true;
+                        break;
+                    case "winc":
+                    case "binc":
+                        if (tokens[i].equals("winc") == board.whiteToMove) {
+                            settings.clockIncrementMillis = Long.parseLong(value);
+                        }
+                        break;
+                    case "movestogo":
+                        settings.movesToGo = Integer.parseInt(value);
+                        break;
+                    case "infinite":
+                        infinite = true;
+                        break;
+                }
+            } catch (NumberFormatException e) {
+                Send("info string invalid value for " + tokens[i] + ": " + value);
+            }
+        }
+        // Without any limit the search runs until stopped
+        infiniteSearch = infinite || !hasLimit;
+        settings.endlessSearchMode = infiniteSearch;
+
+        UpdateSearch();
+        stopRequested = false;
+        searchThread = new Thread(this::RunSearch, "search");
+        searchThread.start();
+    }
+
+    void RunSearch() {
+        search.StartSearch();
+        // In infinite mode the best move must not be sent before the GUI says stop,
+        // even if the search has ended by itself (e.g. on finding a mate)
+        while (infiniteSearch && !stopRequested) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // Without a legal move (checkmate or stalemate) the protocol expects the null move
+        Move bestMove = search.GetSearchResult();
+        Send("bestmove " + (bestMove.IsInvalid() ? "0000" : bestMove.toString()));
+    }
+
+    // Stops a running search and waits until its best move has been sent
+    void StopSearch() {
+        if (searchThread == null) {
+            return;
+        }
+        stopRequested = true;
+        // The search may not have started yet, in which case it would reset the abort
+        // flag, so keep requesting the abort until the thread has finished
+        while (searchThread.isAlive()) {
+            search.EndSearch();
+            try {
+                searchThread.join(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        searchThread = null;
+    }
+
+    void SendInfo(Search.SearchDiagnostics diagnostics) {
+        long nodesPerSecond = diagnostics.numNodes * 1000 / Math.max(1, diagnostics.timeMillis);
+        Send("info depth " + diagnostics.lastCompletedDepth + " score " + FormatScore(diagnostics.eval) + " nodes "
+                + diagnostics.numNodes + " nps " + nodesPerSecond + " hashfull " + diagnostics.hashfull + " time "
+                + diagnostics.timeMillis + " pv " + diagnostics.principalVariation);
+    }
+
+    // Score from the point of view of the side to move, as "cp <centipawns>" or "mate <moves>"
+    static String FormatScore(int eval) {
+        if (Search.IsMateScore(eval)) {
+            int numMovesToMate = (Search.NumPlyToMateFromScore(eval) + 1) / 2;
+            return "mate " + (eval > 0 ? numMovesToMate : -numMovesToMate);
+        }
+        return "cp " + eval;
+    }
+
+    void Send(String message) {
+        System.out.println(message);
+    }
+}
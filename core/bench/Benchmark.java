@@ -0,0 +1,131 @@
+package core.bench;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Minimal micro benchmark harness. Each benchmark is run repeatedly for a fixed
+ * time per iteration, first for a number of warmup iterations (to let the JIT
+ * compile the hot paths) and then for the measured iterations.
+ *
+ * This stands in for JMH, since the project is built with plain javac and has no
+ * build file to pull it in. Unlike JMH it doesn't fork: all benchmarks share one
+ * JVM and its JIT state, so run a single benchmark per process (-filter) when
+ * comparing numbers closely. It also can't tell whether an operation did the work
+ * it was meant to, so operations should check their results (see
+ * EngineBenchmarks.CheckSearched).
+ *
+ * To run the engine benchmarks from the repository root:
+ *   javac -encoding UTF-8 -d out $(find core -name '*.java')
+ *   java -cp out core.bench.EngineBenchmarks [-filter name] [-json results.json]
+ */
+public class Benchmark {
+
+    // A single benchmark invocation. The returned value is accumulated into a sink,
+    // so that the JIT can't remove the work as dead code.
+    public interface Operation {
+        long run();
+    }
+
+    public static class Result {
+        public final String name;
+        public final double[] nanosPerOp; // one value per measured iteration
+
+        Result(String name, double[] nanosPerOp) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+        }
+
+        public double mean() {
+            double sum = 0;
+            for (double value : nanosPerOp) {
+                sum += value;
+            }
+            return sum / nanosPerOp.length;
+        }
+
+        public double standardDeviation() {
+            double mean = mean();
+            double sum = 0;
+            for (double value : nanosPerOp) {
+                sum += (value - mean) * (value - mean);
+            }
+            return nanosPerOp.length > 1 ? Math.sqrt(sum / (nanosPerOp.length - 1)) : 0;
+        }
+
+        public double opsPerSecond() {
+            return 1e9 / mean();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-40s %14.1f ns/op  (+- %.1f)  %14.1f ops/s", name, mean(),
+                    standardDeviation(), opsPerSecond());
+        }
+    }
+
+    public int warmupIterations = 3;
+    public int measurementIterations = 5;
+    public long iterationMillis = 1000;
+    public String filter = ""; // only benchmarks whose name contains this are run
+
+    final List<Result> results = new ArrayList<Result>();
+    long sink;
+
+    public void Run(String name, Operation operation) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            RunIteration(operation);
+        }
+        double[] nanosPerOp = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            nanosPerOp[i] = RunIteration(operation);
+        }
+        Result result = new Result(name, nanosPerOp);
+        results.add(result);
+        System.out.println(result);
+    }
+
+    // Returns the average time per operation in nanoseconds
+    double RunIteration(Operation operation) {
+        long iterationNanos = iterationMillis * 1000000;
+        long numOps = 0;
+        long startTime = System.nanoTime();
+        long elapsed;
+        do {
+            sink += operation.run();
+            numOps++;
+            elapsed = System.nanoTime() - startTime;
+        } while (elapsed < iterationNanos);
+        return (double) elapsed / numOps;
+    }
+
+    public List<Result> GetResults() {
+        return results;
+    }
+
+    // Writes all results as a JSON array, one object per benchmark
+    public void WriteJson(String path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(path))) {
+            writer.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                StringBuilder iterations = new StringBuilder();
+                for (int j = 0; j < result.nanosPerOp.length; j++) {
+                    iterations.append(j > 0 ? ", " : "").append(String.format(Locale.ROOT, "%.3f", result.nanosPerOp[j]));
+                }
+                writer.println("  {");
+                writer.println("    \"benchmark\": \"" + result.name.replace("\"", "\\\"") + "\",");
+                writer.println("    \"unit\": \"ns/op\",");
+                writer.println(String.format(Locale.ROOT, "    \"score\": %.3f,", result.mean()));
+                writer.println(String.format(Locale.ROOT, "    \"scoreError\": %.3f,", result.standardDeviation()));
+                writer.println(String.format(Locale.ROOT, "    \"opsPerSecond\": %.3f,", result.opsPerSecond()));
+                writer.println("    \"iterations\": [" + iterations + "]");
+                writer.println("  }" + (i < results.size() - 1 ? "," : ""));
+            }
+            writer.println("]");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package core.bench;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import core.*;
+import core.ai.*;
+import core.util.*;
+
+/**
+ * Benchmarks of the engine hot paths over a fixed set of positions.
+ *
+ * Usage: EngineBenchmarks [-wi warmupIterations] [-i iterations] [-time iterationMillis]
+ * [-depth searchDepth] [-filter nameSubstring] [-json outputFile]
+ */
+public class EngineBenchmarks {
+
+    static final String[] benchmarkFens = {
+            FenUtility.startFen,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "6k1/5pp1/4p2p/8/3P4/2r3P1/5PKP/2R5 w - - 0 1",
+    };
+
+    public static void main(String[] args) throws IOException {
+        Benchmark benchmark = new Benchmark();
+        String jsonPath = null;
+        int searchDepth = 4;
+        for (int i = 0; i < args.length - 1; i += 2) {
+            switch (args[i]) {
+                case "-wi":
+                    benchmark.warmupIterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-i":
+                    benchmark.measurementIterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-time":
+                    benchmark.iterationMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "-depth":
+                    searchDepth = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-filter":
+                    benchmark.filter = args[i + 1];
+                    break;
+                case "-json":
+                    jsonPath = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        RunAll(benchmark, searchDepth);
+
+        if (jsonPath != null) {
+            benchmark.WriteJson(jsonPath);
+            System.out.println("Results written to " + jsonPath);
+        }
+    }
+
+    static void RunAll(Benchmark benchmark, int searchDepth) {
+        int numPositions = benchmarkFens.length;
+        Board[] boards = new Board[numPositions];
+        MoveGenerator[] moveGenerators = new MoveGenerator[numPositions];
+        int[][] legalMoves = new int[numPositions][];
+        for (int i = 0; i < numPositions; i++) {
+            boards[i] = new Board();
+            boards[i].LoadPosition(benchmarkFens[i]);
+            // Each position keeps its own generator, so that the attack data used by
+            // the move ordering belongs to that position
+            moveGenerators[i] = new MoveGenerator();
+            int[] buffer = new int[MoveGenerator.MAX_MOVE_COUNT];
+            int numMoves = moveGenerators[i].generateMoves(boards[i], buffer, true);
+            legalMoves[i] = Arrays.copyOf(buffer, numMoves);
+        }
+        int[] moveBuffer = new int[MoveGenerator.MAX_MOVE_COUNT];
+        MoveGenerator moveGenerator = new MoveGenerator();
+
+        benchmark.Run("MoveGenerator.generateMoves (all)", () -> {
+            long numMoves = 0;
+            for (Board board : boards) {
+                numMoves += moveGenerator.generateMoves(board, moveBuffer, true);
+            }
+            return numMoves;
+        });
+
+        benchmark.Run("MoveGenerator.generateMoves (captures)", () -> {
+            long numMoves = 0;
+            for (Board board : boards) {
+                numMoves += moveGenerator.generateMoves(board, moveBuffer, false);
+            }
+            return numMoves;
+        });
+
+        benchmark.Run("Board.MakeMove/UnmakeMove (all legal moves)", () -> {
+            long keys = 0;
+            for (int i = 0; i < numPositions; i++) {
+                for (int move : legalMoves[i]) {
+                    boards[i].MakeMove(move, true);
+                    keys ^= boards[i].ZobristKey;
+                    boards[i].UnmakeMove(move, true);
+                }
+            }
+            return keys;
+        });
+
+        Evaluation evaluation = new Evaluation();
+        benchmark.Run("Evaluation.Evaluate", () -> {
+            long sum = 0;
+            for (Board board : boards) {
+                sum += evaluation.Evaluate(board);
+            }
+            return sum;
+        });
+
+        TranspositionTable orderingTable = new TranspositionTable(1);
+        MoveOrdering[] moveOrderings = new MoveOrdering[numPositions];
+        for (int i = 0; i < numPositions; i++) {
+            moveOrderings[i] = new MoveOrdering(moveGenerators[i], orderingTable);
+        }
+        benchmark.Run("MoveOrdering.OrderMoves", () -> {
+            long firstMoves = 0;
+            for (int i = 0; i < numPositions; i++) {
+                int numMoves = legalMoves[i].length;
+                System.arraycopy(legalMoves[i], 0, moveBuffer, 0, numMoves);
+                moveOrderings[i].OrderMoves(boards[i], moveBuffer, numMoves, false);
+                firstMoves += moveBuffer[0];
+            }
+            return firstMoves;
+        });
+
+        TranspositionTable tt = new TranspositionTable(16);
+        long[] keys = new long[4096];
+        Random random = new Random(1);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+        benchmark.Run("TranspositionTable.Store/Lookup (4096 keys)", () -> {
+            long sum = 0;
+            for (int i = 0; i < keys.length; i++) {
+                tt.StoreEvaluation(keys[i], 4, 0, i, TranspositionTable.Exact, 0);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                sum += tt.LookupEvaluation(keys[i], 4, 0, 0, 1);
+            }
+            return sum;
+        });
+
+        benchmark.Run("ZobristHashing.calculateZobristKey", () -> {
+            long keySum = 0;
+            for (Board board : boards) {
+                keySum += ZobristHashing.calculateZobristKey(board);
+            }
+            return keySum;
+        });
+
+        AISettings settings = new AISettings();
+        settings.useFixedDepthSearch = true;
+        settings.depth = searchDepth;
+        settings.transpositionTableSizeMB = 16;
+        settings.clearTTEachMove = true; // otherwise every search after the first is answered by the table
+        Search[] searches = new Search[numPositions];
+        for (int i = 0; i < numPositions; i++) {
+            searches[i] = new Search(boards[i], null, settings);
+        }
+        benchmark.Run("Search.StartSearch (depth " + searchDepth + ")", () -> {
+            long moveSum = 0;
+            for (int i = 0; i < numPositions; i++) {
+                searches[i].StartSearch();
+                CheckSearched(searches[i], searchDepth, legalMoves[i].length);
+                moveSum += searches[i].GetSearchResult().moveValue;
+            }
+            return moveSum;
+        });
+    }
+
+    // The harness only times what it's given, so make sure each search actually ran: it has
+    // to complete the requested depth and visit at least every root move once. A search that
+    // is answered without searching (e.g. from a table kept from the previous run) is an error.
+    static void CheckSearched(Search search, int searchDepth, int numRootMoves) {
+        Search.SearchDiagnostics diagnostics = search.searchDiagnostics;
+        if (diagnostics.lastCompletedDepth != searchDepth || diagnostics.numNodes < numRootMoves) {
+            throw new IllegalStateException("Search benchmark didn't search: depth " + diagnostics.lastCompletedDepth
+                    + " of " + searchDepth + ", " + diagnostics.numNodes + " nodes for " + numRootMoves + " root moves");
+        }
+    }
+}
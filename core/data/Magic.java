@@ -0,0 +1,98 @@
+package core.data;
+
+/**
+ * Lookup tables for the attacks of sliding pieces. For every square, the
+ * relevant blockers (the pieces on the rays of the slider, not counting the
+ * edge of the board) are multiplied by a magic number, which maps each
+ * blocker configuration to an index in a precomputed table of attacks.
+ * src: https://www.chessprogramming.org/Magic_Bitboards
+ */
+public class Magic {
+
+    public static final long[] rookMasks;
+    public static final long[] bishopMasks;
+
+    static final int[] rookShifts;
+    static final int[] bishopShifts;
+
+    static final long[][] rookAttacks;
+    static final long[][] bishopAttacks;
+
+    // Returns the squares attacked by a rook on the given square, including the first blocker in each direction
+    public static long GetRookAttacks(int square, long blockers) {
+        int key = (int) (((blockers & rookMasks[square]) * PrecomputedMagics.ROOK_MAGICS[square]) >>> rookShifts[square]);
+        return rookAttacks[square][key];
+    }
+
+    // Returns the squares attacked by a bishop on the given square, including the first blocker in each direction
+    public static long GetBishopAttacks(int square, long blockers) {
+        int key = (int) (((blockers & bishopMasks[square]) * PrecomputedMagics.BISHOP_MAGICS[square]) >>> bishopShifts[square]);
+        return bishopAttacks[square][key];
+    }
+
+    public static long GetQueenAttacks(int square, long blockers) {
+        return GetRookAttacks(square, blockers) | GetBishopAttacks(square, blockers);
+    }
+
+    static {
+        rookMasks = new long[64];
+        bishopMasks = new long[64];
+        rookShifts = new int[64];
+        bishopShifts = new int[64];
+        rookAttacks = new long[64][];
+        bishopAttacks = new long[64][];
+
+        for (int squareIndex = 0; squareIndex < 64; squareIndex++) {
+            rookMasks[squareIndex] = CreateBlockerMask(squareIndex, 0, 4);
+            bishopMasks[squareIndex] = CreateBlockerMask(squareIndex, 4, 8);
+            rookShifts[squareIndex] = 64 - Long.bitCount(rookMasks[squareIndex]);
+            bishopShifts[squareIndex] = 64 - Long.bitCount(bishopMasks[squareIndex]);
+
+            rookAttacks[squareIndex] = CreateAttackTable(squareIndex, rookMasks[squareIndex],
+                    PrecomputedMagics.ROOK_MAGICS[squareIndex], rookShifts[squareIndex], 0, 4);
+            bishopAttacks[squareIndex] = CreateAttackTable(squareIndex, bishopMasks[squareIndex],
+                    PrecomputedMagics.BISHOP_MAGICS[squareIndex], bishopShifts[squareIndex], 4, 8);
+        }
+    }
+
+    static long[] CreateAttackTable(int square, long blockerMask, long magic, int shift, int startDirIndex, int endDirIndex) {
+        long[] table = new long[1 << (64 - shift)];
+        // Enumerate every subset of the blocker mask (carry-rippler trick)
+        long blockers = 0;
+        do {
+            int key = (int) ((blockers * magic) >>> shift);
+            table[key] = CreateAttacks(square, blockers, startDirIndex, endDirIndex);
+            blockers = (blockers - blockerMask) & blockerMask;
+        } while (blockers != 0);
+        return table;
+    }
+
+    // Squares along the given directions, excluding the last square before the edge of the board
+    // (a piece standing there can't block anything further along the ray)
+    static long CreateBlockerMask(int square, int startDirIndex, int endDirIndex) {
+        long mask = 0;
+        for (int directionIndex = startDirIndex; directionIndex < endDirIndex; directionIndex++) {
+            int currentDirOffset = PrecomputedMoveData.directionOffsets[directionIndex];
+            for (int n = 1; n < PrecomputedMoveData.numSquaresToEdge[square][directionIndex]; n++) {
+                mask |= 1l << (square + currentDirOffset * n);
+            }
+        }
+        return mask;
+    }
+
+    // Slow reference implementation, only used to fill the tables
+    static long CreateAttacks(int square, long blockers, int startDirIndex, int endDirIndex) {
+        long attacks = 0;
+        for (int directionIndex = startDirIndex; directionIndex < endDirIndex; directionIndex++) {
+            int currentDirOffset = PrecomputedMoveData.directionOffsets[directionIndex];
+            for (int n = 0; n < PrecomputedMoveData.numSquaresToEdge[square][directionIndex]; n++) {
+                int targetSquare = square + currentDirOffset * (n + 1);
+                attacks |= 1l << targetSquare;
+                if (((blockers >> targetSquare) & 1) != 0) {
+                    break;
+                }
+            }
+        }
+        return attacks;
+    }
+}
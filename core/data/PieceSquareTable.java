@@ -1,5 +1,6 @@
 package core.data;
 
+import core.*;
 import core.util.*;
 
 /**
@@ -7,6 +8,12 @@ import core.util.*;
  * some regions of the board will generally be more favorable than others.
  */
 public class PieceSquareTable {
+
+    // Table values of each piece (type | colour) on each square, for incrementally updating
+    // the evaluation. The middlegame and endgame values only differ for the king.
+    public static final int[][] middlegameValues = new int[(Piece.Black | Piece.Queen) + 1][64];
+    public static final int[][] endgameValues = new int[(Piece.Black | Piece.Queen) + 1][64];
+
     public static int Read(int[] table, int square, boolean isWhite) {
         if (isWhite) {
             int file = BoardUtility.FileIndex(square);
@@ -94,4 +101,26 @@ public class PieceSquareTable {
             -30, -30, 0, 0, 0, 0, -30, -30,
             -50, -30, -30, -30, -30, -30, -30, -50
     };
+
+    static {
+        int[][] tables = new int[Piece.Queen + 1][];
+        tables[Piece.Pawn] = pawns;
+        tables[Piece.Knight] = knights;
+        tables[Piece.Bishop] = bishops;
+        tables[Piece.Rook] = rooks;
+        tables[Piece.Queen] = queens;
+        for (int colour : new int[] { Piece.White, Piece.Black }) {
+            boolean isWhite = colour == Piece.White;
+            for (int square = 0; square < 64; square++) {
+                for (int pieceType = Piece.Pawn; pieceType <= Piece.Queen; pieceType++) {
+                    if (tables[pieceType] != null) {
+                        middlegameValues[pieceType | colour][square] = Read(tables[pieceType], square, isWhite);
+                        endgameValues[pieceType | colour][square] = Read(tables[pieceType], square, isWhite);
+                    }
+                }
+                middlegameValues[Piece.King | colour][square] = Read(kingMiddle, square, isWhite);
+                endgameValues[Piece.King | colour][square] = Read(kingEnd, square, isWhite);
+            }
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package core.data;
+
+/**
+ * Magic numbers used by {@link Magic} to map every blocker configuration of a
+ * rook or bishop on a given square to a unique index in its attack table.
+ * Found by trial and error with random sparse numbers, using the smallest
+ * possible table size for each square.
+ */
+public class PrecomputedMagics {
+    public static final long[] ROOK_MAGICS = {
+            0x480053081214000L, 0x40100040002001L, 0x6080200080100008L, 0x200082004411200L,
+            0x200102008040200L, 0x1100240028210012L, 0x1080008001000200L, 0x100020028488100L,
+            0x1800220400086L, 0x2488804000802004L, 0xC00801000200081L, 0x201C801000080080L,
+            0x441000800100500L, 0xA0808002000400L, 0x125000402000100L, 0x1002200409100L,
+            0x280004020004000L, 0x5110084020004000L, 0x1050020024011L, 0x2020020081040L,
+            0x800050008010010L, 0x81C0808002000400L, 0x8010808001000200L, 0x6000100408CL,
+            0x280400080008020L, 0x3000500040002000L, 0x8400200080801000L, 0x80A01001000D0020L,
+            0x900C001101000800L, 0x110040080800200L, 0x1001000100040200L, 0x60040200008041L,
+            0x4480804000800038L, 0x40002001804080L, 0x2010882000801000L, 0x80282801000L,
+            0x200080080800400L, 0x206000400808002L, 0x2000020001010004L, 0x1014042042000091L,
+            0x200208040008000L, 0x40201000404002L, 0x244200100110041L, 0x41019000090020L,
+            0xA28001100850008L, 0x20020004008080L, 0x1001220108140010L, 0x8A0400408106000CL,
+            0x220100508200L, 0x6040048049003100L, 0x200011024300L, 0x900100082500L,
+            0x870040008008080L, 0x850800600040180L, 0x6008104480200L, 0x1800040108B04200L,
+            0xD12C201080010341L, 0x101042040008013L, 0x2801004008200273L, 0x1900614C500009L,
+            0x202004461500802L, 0x2001008040102L, 0x10001028B1080604L, 0xD000040803201L
+    };
+
+    public static final long[] BISHOP_MAGICS = {
+            0x6460220208002480L, 0x8308C80104002010L, 0xB408121042008000L, 0xC48205040021000L,
+            0x1002021000020000L, 0x840882440802010L, 0x80809008204040L, 0x1402011028A0L,
+            0x88EC002040400B0L, 0x5500608087180L, 0xA20089020010L, 0x10908602C060L,
+            0x2810420210014000L, 0x40024802400080L, 0x408484230100840L, 0x20A08A4011800L,
+            0x20003062062848L, 0x2504510440102L, 0xA23005310C008810L, 0x48000104110044L,
+            0x10A000422010008L, 0x2021000200A0A400L, 0x4400208124801L, 0x8000280480841000L,
+            0x8110100206600229L, 0x814204102080909L, 0xA0300002040840L, 0x8808080000202020L,
+            0x4040400C0410040L, 0x108404200C101400L, 0x1C1012000480802L, 0xA020520040420200L,
+            0x2404100800062001L, 0x2014400208804L, 0x100805000410402L, 0x241420080080080L,
+            0x8040040444030100L, 0xF50064242020110L, 0x1020200888818L, 0x801021200018069L,
+            0x2803086094A01040L, 0x2440482804444800L, 0x2002024200804L, 0x880101420800C084L,
+            0x40A4182008200900L, 0x8420008102041040L, 0x901001304A0508L, 0x450021448519100L,
+            0x402021002080A10L, 0xD01009084020CL, 0x20800A0046480040L, 0x83020880220L,
+            0x1010803040142L, 0x81001520000L, 0x40100420809000L, 0x22900428808202L,
+            0x404044202010L, 0x1008004044108804L, 0x1008305509415000L, 0x1000840400208840L,
+            0x810260A12020201L, 0x3000A04410020210L, 0x903102082008204L, 0x490808088808C308L
+    };
+}
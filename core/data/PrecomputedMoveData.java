@@ -40,6 +40,11 @@ import core.util.Coord;
 		public static final long[] bishopMoves;
 		public static final long[] queenMoves;
 
+		// Squares strictly between two squares that share a rank, file or diagonal (0 if they don't)
+		public static final long[][] betweenMask;
+		// Every square on the line through two squares that share a rank, file or diagonal (0 if they don't)
+		public static final long[][] alignMask;
+
 		// Aka manhattan distance (answers how many moves for a rook to get from square a to square b)
         public static int[][] orthogonalDistance;
 		// Aka chebyshev distance (answers how many moves for a king to get from square a to square b)
@@ -204,6 +209,30 @@ import core.util.Coord;
 				directionLookup[i] = absDir * (int) Math.signum(offset);
 			}
 
+			betweenMask = new long[64][64];
+			alignMask = new long[64][64];
+			for (int squareA = 0; squareA < 64; squareA++) {
+				for (int directionIndex = 0; directionIndex < 8; directionIndex++) {
+					int currentDirOffset = directionOffsets[directionIndex];
+					int oppositeDirIndex = directionIndex ^ 1; // directions are stored in opposite pairs
+					long line = 1l << squareA;
+					for (int n = 0; n < numSquaresToEdge[squareA][directionIndex]; n++) {
+						line |= 1l << (squareA + currentDirOffset * (n + 1));
+					}
+					for (int n = 0; n < numSquaresToEdge[squareA][oppositeDirIndex]; n++) {
+						line |= 1l << (squareA + directionOffsets[oppositeDirIndex] * (n + 1));
+					}
+
+					long ray = 0;
+					for (int n = 0; n < numSquaresToEdge[squareA][directionIndex]; n++) {
+						int squareB = squareA + currentDirOffset * (n + 1);
+						betweenMask[squareA][squareB] = ray;
+						alignMask[squareA][squareB] = line;
+						ray |= 1l << squareB;
+					}
+				}
+			}
+
 			// Distance lookup
 			orthogonalDistance = new int[64][64];
 			kingDistance = new int[64][64];
@@ -0,0 +1,170 @@
+package core.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import core.*;
+
+/**
+ * Counts the leaf nodes of the move tree up to a given depth, for verifying and
+ * measuring the move generator.
+ * src: https://www.chessprogramming.org/Perft_Results
+ */
+public class Perft {
+
+    // Reference positions with their known node counts for depth 1, 2, 3, ...
+    public static final String[] referenceFens = {
+            FenUtility.startFen,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+            "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+            "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+    };
+    public static final long[][] referenceNodeCounts = {
+            { 20, 400, 8902, 197281, 4865609, 119060324 },
+            { 48, 2039, 97862, 4085603, 193690690 },
+            { 14, 191, 2812, 43238, 674624, 11030083 },
+            { 6, 264, 9467, 422333, 15833292 },
+            { 44, 1486, 62379, 2103487, 89941194 },
+            { 46, 2079, 89890, 3894594, 164075551 },
+    };
+
+    static final int MAX_DEPTH = 64;
+
+    // With bulk counting the moves at the last ply are only counted, not made.
+    // This gives the same node counts, but doesn't exercise MakeMove/UnmakeMove there.
+    public boolean useBulkCounting = true;
+
+    Board board;
+    MoveGenerator moveGenerator;
+    int[][] moveBuffers;
+
+    public Perft(Board board) {
+        this.board = board;
+        moveGenerator = new MoveGenerator();
+        moveBuffers = new int[MAX_DEPTH][MoveGenerator.MAX_MOVE_COUNT];
+    }
+
+    // Number of leaf nodes of the move tree of the current position at the given depth
+    public long CountNodes(int depth) {
+        CheckDepth(depth);
+        return CountNodes(depth, 0);
+    }
+
+    long CountNodes(int depth, int ply) {
+        if (depth == 0) {
+            return 1;
+        }
+        int[] moves = moveBuffers[ply];
+        int numMoves = moveGenerator.generateMoves(board, moves, true);
+        if (depth == 1 && useBulkCounting) {
+            return numMoves;
+        }
+
+        long numNodes = 0;
+        for (int i = 0; i < numMoves; i++) {
+            board.MakeMove(moves[i], true);
+            numNodes += CountNodes(depth - 1, ply + 1);
+            board.UnmakeMove(moves[i], true);
+        }
+        return numNodes;
+    }
+
+    // Node counts of the subtree below each legal move (in long algebraic notation)
+    public Map<String, Long> Divide(int depth) {
+        CheckDepth(depth);
+        Map<String, Long> nodesPerMove = new LinkedHashMap<String, Long>();
+        int[] moves = moveBuffers[0];
+        int numMoves = moveGenerator.generateMoves(board, moves, true);
+        for (int i = 0; i < numMoves; i++) {
+            int move = moves[i];
+            board.MakeMove(move, true);
+            long numNodes = CountNodes(depth - 1, 1);
+            board.UnmakeMove(move, true);
+            nodesPerMove.put(new Move((short) move).toString(), numNodes);
+        }
+        return nodesPerMove;
+    }
+
+    // Runs all reference positions up to the given depth, printing node counts and speed.
+    // Returns false if any count differs from the reference.
+    public static boolean RunReferenceSuite(int maxDepth, boolean useBulkCounting) {
+        CheckDepth(maxDepth);
+        boolean allPassed = true;
+        long totalNodes = 0;
+        long totalNanos = 0;
+        Board board = new Board();
+
+        for (int i = 0; i < referenceFens.length; i++) {
+            board.LoadPosition(referenceFens[i]);
+            Perft perft = new Perft(board);
+            perft.useBulkCounting = useBulkCounting;
+            int depth = Math.min(maxDepth, referenceNodeCounts[i].length);
+            long expected = referenceNodeCounts[i][depth - 1];
+
+            long startTime = System.nanoTime();
+            long numNodes = perft.CountNodes(depth);
+            long elapsed = System.nanoTime() - startTime;
+            totalNodes += numNodes;
+            totalNanos += elapsed;
+
+            boolean passed = numNodes == expected;
+            allPassed &= passed;
+            System.out.println((passed ? "ok     " : "FAILED ") + referenceFens[i]);
+            System.out.println("       depth " + depth + ": " + numNodes + " nodes (expected " + expected + "), "
+                    + NodesPerSecond(numNodes, elapsed) + " nps");
+        }
+        System.out.println("Total: " + totalNodes + " nodes, " + NodesPerSecond(totalNodes, totalNanos) + " nps");
+        return allPassed;
+    }
+
+    // Depths start at 1, and the move buffers hold MAX_DEPTH plies
+    static void CheckDepth(int depth) {
+        if (depth < 1 || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Perft depth must be between 1 and " + MAX_DEPTH + ": " + depth);
+        }
+    }
+
+    static long NodesPerSecond(long numNodes, long nanos) {
+        return nanos == 0 ? 0 : numNodes * 1000000000l / nanos;
+    }
+
+    /**
+     * Usage:
+     * Perft [maxDepth] [nobulk] runs the reference suite (default depth 5)
+     * Perft divide depth fen prints the node count below each move of the position
+     */
+    public static void main(String[] args) {
+        try {
+            Run(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static void Run(String[] args) {
+        if (args.length > 0 && args[0].equals("divide")) {
+            int depth = Integer.parseInt(args[1]);
+            String fen = (args.length > 2) ? String.join(" ", Arrays.copyOfRange(args, 2, args.length))
+                    : FenUtility.startFen;
+            Board board = new Board();
+            board.LoadPosition(fen);
+            long totalNodes = 0;
+            for (Map.Entry<String, Long> entry : new Perft(board).Divide(depth).entrySet()) {
+                System.out.println(entry.getKey() + ": " + entry.getValue());
+                totalNodes += entry.getValue();
+            }
+            System.out.println("Nodes searched: " + totalNodes);
+            return;
+        }
+
+        int maxDepth = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        boolean useBulkCounting = !(args.length > 1 && args[1].equals("nobulk"));
+        if (!RunReferenceSuite(maxDepth, useBulkCounting)) {
+            System.exit(1);
+        }
+    }
+}
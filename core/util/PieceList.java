@@ -49,6 +49,13 @@ public class PieceList {
 		map[targetSquare] = pieceIndex;
 	}
 
+	// Makes this list hold the same squares as the other one (which must not hold more pieces than this one can)
+	public void copyFrom (PieceList other) {
+		System.arraycopy(other.occupiedSquares, 0, occupiedSquares, 0, other.numPieces);
+		System.arraycopy(other.map, 0, map, 0, 64);
+		numPieces = other.numPieces;
+	}
+
 	// public int this [int index] => occupiedSquares[index];
 	public int get(int index) {
 		return occupiedSquares[index];
@@ -7,7 +7,7 @@ import java.util.*;
 import core.*;
 
 public class ZobristHashing {
-    static final int SEED = 2361912;
+    public static final int SEED = 2361912;
     static final String randomNumbersFileName = "RandomNumbers.txt";
 
     /// piece type, colour, square index
@@ -16,6 +16,10 @@ public class ZobristHashing {
     /// ep file (0 = no ep).
     public static final long[] enPassantFile = new long[9]; // no need for rank info as side to move is included in key
     public static final long sideToMove;
+    // Combination of all the random numbers above. The numbers are read from a file that may
+    // have been changed or regenerated, so this (together with the seed) identifies the keys
+    // they produce, e.g. to reject stored keys that were calculated with other numbers.
+    public static final long keysChecksum;
 
     static Random prng = new Random(SEED);
 
@@ -79,6 +83,22 @@ public class ZobristHashing {
         }
 
         sideToMove = randomNumbers.poll();
+
+        long checksum = SEED;
+        for (long[][] pieceNumbers : piecesArray) {
+            for (long[] colourNumbers : pieceNumbers) {
+                for (long number : colourNumbers) {
+                    checksum = checksum * 31 + number;
+                }
+            }
+        }
+        for (long number : castlingRights) {
+            checksum = checksum * 31 + number;
+        }
+        for (long number : enPassantFile) {
+            checksum = checksum * 31 + number;
+        }
+        keysChecksum = checksum * 31 + sideToMove;
     }
 
     /**
@@ -97,7 +117,7 @@ public class ZobristHashing {
         }
 
         int epIndex = (int) (board.currentGameState >> 4) & 15;
-        if (epIndex != -1) {
+        if (epIndex != 0) {
             zobristKey ^= enPassantFile[epIndex];
         }
 